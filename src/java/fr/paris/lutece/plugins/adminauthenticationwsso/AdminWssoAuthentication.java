@@ -33,32 +33,44 @@
  */
 package fr.paris.lutece.plugins.adminauthenticationwsso;
 
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoDirectoryReplicaService;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoLdapExecutorService;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoUserCacheService;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.IWssoUserPageHandler;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoCookies;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoLdapContextPool;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoLdapUtil;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoSortedUserCollector;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.business.user.authentication.AdminAuthentication;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import fr.paris.lutece.util.ldap.LdapUtil;
 
+import java.io.Serializable;
+
 import java.text.MessageFormat;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import javax.naming.CommunicationException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 
 import javax.security.auth.login.LoginException;
 
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 
 /**
@@ -71,23 +83,16 @@ public class AdminWssoAuthentication implements AdminAuthentication
 
     // wsso
     private static final String PROPERTY_AUTH_SERVICE_NAME = "adminauthenticationwsso.service.name";
-    private static final String PROPERTY_COOKIE_AUTHENTIFICATION = "adminauthenticationwsso.cookie.authenticationMode"; // mode d?authentification, login/pwd ou certificat
-    private static final String PROPERTY_COOKIE_WSSOGUID = "adminauthenticationwsso.cookie.wssoguid"; // L?identifiant h?xa unique de l?utilisateur
-    private static final String PROPERTY_COOKIE_LASTNAME = "adminauthenticationwsso.cookie.lastname"; // Nom de l'utilisateur
-    private static final String PROPERTY_COOKIE_FIRSTNAME = "adminauthenticationwsso.cookie.firstname"; // Pr?nom de l'utilisateur
-    private static final String PROPERTY_COOKIE_EMAIL = "adminauthenticationwsso.cookie.email"; // Email de l'utilisateur
+    
+    private static final String PROPERTY_SESSION_USER_ENABLED = "adminauthenticationwsso.session.user.enabled";
+    private static final String SESSION_ATTRIBUTE_USER = "adminauthenticationwsso.sessionUser";
     
     public static final String WSSO_CHANGE_PASSWORD_URL = "adminauthenticationwsso.url.changePassword"; //url de changement de password
 
     //ldap
-    private static final String PROPERTY_INITIAL_CONTEXT_PROVIDER = "adminauthenticationwsso.ldap.initialContextProvider";
-    private static final String PROPERTY_PROVIDER_URL = "adminauthenticationwsso.ldap.connectionUrl";
-    private static final String PROPERTY_BIND_DN = "adminauthenticationwsso.ldap.connectionName";
-    private static final String PROPERTY_BIND_PASSWORD = "adminauthenticationwsso.ldap.connectionPassword";
     private static final String PROPERTY_USER_DN_SEARCH_BASE = "adminauthenticationwsso.ldap.userBase";
     private static final String PROPERTY_USER_DN_SEARCH_FILTER_BY_GUID = "adminauthenticationwsso.ldap.userSearch.guid";
     private static final String PROPERTY_USER_DN_SEARCH_FILTER_BY_CRITERIA = "adminauthenticationwsso.ldap.userSearch.criteria";
-    private static final String PROPERTY_USER_SUBTREE = "adminauthenticationwsso.ldap.userSubtree";
     private static final String PROPERTY_DN_ATTRIBUTE_GUID = "adminauthenticationwsso.ldap.dn.attributeName.wssoGuid";
     private static final String PROPERTY_DN_ATTRIBUTE_FAMILY_NAME = "adminauthenticationwsso.ldap.dn.attributeName.familyName";
     private static final String PROPERTY_DN_ATTRIBUTE_GIVEN_NAME = "adminauthenticationwsso.ldap.dn.attributeName.givenName";
@@ -97,32 +102,6 @@ public class AdminWssoAuthentication implements AdminAuthentication
     private static final String ATTRIBUTE_GIVEN_NAME = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_GIVEN_NAME );
     private static final String ATTRIBUTE_EMAIL = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_EMAIL );
     
-    /* comparator for sorting - date ascendant order */
-    private static final Comparator<AdminWssoUser> COMPARATOR_USER = new Comparator<AdminWssoUser>(  )
-        {
-            public int compare( AdminWssoUser user1, AdminWssoUser user2 )
-            {
-                int nOrder = user1.getLastName(  ).toUpperCase(  ).compareTo( user2.getLastName(  ).toUpperCase(  ) );
-
-                if ( nOrder == 0 )
-                {
-                    nOrder = user1.getFirstName(  ).toUpperCase(  ).compareTo( user2.getFirstName(  ).toUpperCase(  ) );
-
-                    if ( nOrder == 0 )
-                    {
-                        nOrder = user1.getEmail(  ).toUpperCase(  ).compareTo( user2.getEmail(  ).toUpperCase(  ) );
-                    }
-                }
-
-                return nOrder;
-            }
-        };
-
-    /**
-     * Search controls for the user entry search
-     */
-    private SearchControls _scUserSearchControls;
-
     /**
      *
      */
@@ -144,20 +123,9 @@ public class AdminWssoAuthentication implements AdminAuthentication
      */
     public String getAuthType( HttpServletRequest request )
     {
-        Cookie[] cookies = request.getCookies(  );
-        String strAuthType = request.getAuthType(  );
-
-        for ( int i = 0; i < cookies.length; i++ )
-        {
-            Cookie cookie = cookies[i];
+        String strAuthType = WssoCookies.read( request ).getAuthenticationMode(  );
 
-            if ( cookie.getName(  ).equals( AppPropertiesService.getProperty( PROPERTY_COOKIE_AUTHENTIFICATION ) ) )
-            {
-                strAuthType = cookie.getValue(  );
-            }
-        }
-
-        return strAuthType;
+        return ( strAuthType != null ) ? strAuthType : request.getAuthType(  );
     }
 
     /**
@@ -201,46 +169,60 @@ public class AdminWssoAuthentication implements AdminAuthentication
      */
     public AdminUser getHttpAuthenticatedUser( HttpServletRequest request )
     {
-        Cookie[] cookies = request.getCookies(  );
-        AdminWssoUser user = null;
-        String strUserID = null;
-        String strFamilyName = null;
-        String strGivenName = null;
-        String strEmail = "";
+        WssoCookies wssoCookies = WssoCookies.read( request );
 
-        for ( int i = 0; i < cookies.length; i++ )
+        if ( wssoCookies.getGuid(  ) == null )
         {
-            Cookie cookie = cookies[i];
+            return null;
+        }
 
-            if ( cookie.getName(  ).equals( AppPropertiesService.getProperty( PROPERTY_COOKIE_WSSOGUID ) ) )
-            {
-                strUserID = cookie.getValue(  );
-            }
-            else if ( cookie.getName(  ).equals( AppPropertiesService.getProperty( PROPERTY_COOKIE_LASTNAME ) ) )
-            {
-                strFamilyName = cookie.getValue(  );
-            }
-            else if ( cookie.getName(  ).equals( AppPropertiesService.getProperty( PROPERTY_COOKIE_FIRSTNAME ) ) )
-            {
-                strGivenName = cookie.getValue(  );
-            }
-            else if ( cookie.getName(  ).equals( AppPropertiesService.getProperty( PROPERTY_COOKIE_EMAIL ) ) )
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_SESSION_USER_ENABLED, false ) )
+        {
+            return createUser( wssoCookies );
+        }
+
+        // The user is rebuilt only when the WSSO cookies change during the session
+        HttpSession session = request.getSession( false );
+        long lFingerprint = wssoCookies.getFingerprint(  );
+
+        if ( session != null )
+        {
+            Object sessionUser = session.getAttribute( SESSION_ATTRIBUTE_USER );
+
+            if ( sessionUser instanceof WssoSessionUser &&
+                    ( (WssoSessionUser) sessionUser ).matches( lFingerprint, wssoCookies.getGuid(  ) ) )
             {
-                strEmail = cookie.getValue(  );
+                return ( (WssoSessionUser) sessionUser ).getUser(  );
             }
         }
 
-        if ( strUserID != null )
+        AdminWssoUser user = createUser( wssoCookies );
+
+        if ( session != null )
         {
-            user = new AdminWssoUser( strUserID, this );
-            user.setLastName( strFamilyName );
-            user.setFirstName( strGivenName );
-            user.setEmail( strEmail );
+            session.setAttribute( SESSION_ATTRIBUTE_USER, new WssoSessionUser( lFingerprint, user ) );
         }
 
         return user;
     }
 
+    /**
+     * Creates the user described by the WSSO cookies
+     * @param wssoCookies the WSSO cookies, having a GUID
+     * @return the user
+     */
+    private AdminWssoUser createUser( WssoCookies wssoCookies )
+    {
+        String strEmail = wssoCookies.getEmail(  );
+
+        AdminWssoUser user = new AdminWssoUser( wssoCookies.getGuid(  ), this );
+        user.setLastName( wssoCookies.getLastName(  ) );
+        user.setFirstName( wssoCookies.getFirstName(  ) );
+        user.setEmail( ( strEmail != null ) ? strEmail : "" );
+
+        return user;
+    }
+
     /* (non-Javadoc)
      * @see fr.paris.lutece.portal.business.user.authentication.AdminAuthentication#getLoginPageUrl()
      */
@@ -314,228 +296,297 @@ public class AdminWssoAuthentication implements AdminAuthentication
     /* (non-Javadoc)
      * @see fr.paris.lutece.portal.business.user.authentication.AdminAuthentication#getUserList()
      */
-    public Collection getUserList( String strParameterLastName, String strParameterFirstName, String strParameterEmail )
+    public Collection getUserList( final String strParameterLastName, final String strParameterFirstName,
+        final String strParameterEmail )
     {
-        ArrayList<AdminWssoUser> userList = new ArrayList<AdminWssoUser>(  );
-        SearchResult sr = null;
-        Object[] messageFormatParam = new Object[3];
+        return waitFor( getUserListAsync( strParameterLastName, strParameterFirstName, strParameterEmail ),
+            () -> getUserSearchFilter( strParameterLastName, strParameterFirstName, strParameterEmail ) );
+    }
 
-        DirContext context = null;
+    /**
+     * Searches the users matching the criteria without blocking the calling thread.
+     * Replica searches complete immediately, directory searches run on the
+     * {@link WssoLdapExecutorService} and fail after its timeout.
+     * @param strParameterLastName the last name prefix, or empty
+     * @param strParameterFirstName the first name prefix, or empty
+     * @param strParameterEmail the email prefix, or empty
+     * @return the future users, sorted. Cancelling it interrupts the search.
+     */
+    public CompletableFuture<Collection<AdminWssoUser>> getUserListAsync( String strParameterLastName,
+        String strParameterFirstName, String strParameterEmail )
+    {
+        List<WssoDirectoryUser> listReplicaUsers = WssoDirectoryReplicaService.getInstance(  )
+                                                                              .findUsers( strParameterLastName,
+                strParameterFirstName, strParameterEmail );
 
-        messageFormatParam[0] = checkSyntax( strParameterLastName + CONSTANT_WILDCARD );
-        messageFormatParam[1] = checkSyntax( strParameterFirstName + CONSTANT_WILDCARD );
-        messageFormatParam[2] = checkSyntax( strParameterEmail + CONSTANT_WILDCARD );
+        if ( listReplicaUsers != null )
+        {
+            return CompletableFuture.<Collection<AdminWssoUser>>completedFuture( toAdminWssoUsers( listReplicaUsers ) );
+        }
 
-        String strUserSearchFilter = MessageFormat.format( getUserDnSearchFilterByCriteria(  ), messageFormatParam );
+        final String strUserSearchFilter = getUserSearchFilter( strParameterLastName, strParameterFirstName,
+                strParameterEmail );
 
-        try
-        {
-            _scUserSearchControls = new SearchControls(  );
-            _scUserSearchControls.setSearchScope( getUserDnSearchScope(  ) );
-            _scUserSearchControls.setReturningObjFlag( true );
-            _scUserSearchControls.setCountLimit( 0 );
+        return WssoLdapExecutorService.getInstance(  )
+                                      .submit( () -> toAdminWssoUsers( WssoLdapContextPool.getInstance(  )
+                                                                                         .execute( context -> searchUserList( 
+                        context, strUserSearchFilter ) ) ) );
+    }
 
-            context = LdapUtil.getContext( getInitialContextProvider(  ), getProviderUrl(  ), getBindDn(  ),
-                    getBindPassword(  ) );
+    /* (non-Javadoc)
+     * @see fr.paris.lutece.portal.business.user.authentication.AdminAuthentication#getUserPublicData(java.lang.String)
+     */
+    public AdminUser getUserPublicData( final String strId )
+    {
+        return waitFor( getUserPublicDataAsync( strId ), () -> getUserSearchFilterByGuid( strId ) );
+    }
 
-            NamingEnumeration userResults = LdapUtil.searchUsers( context, strUserSearchFilter,
-                    getUserDnSearchBase(  ), "", _scUserSearchControls );
+    /**
+     * Gets the user of a GUID without blocking the calling thread. Replica and
+     * cache hits complete immediately, directory lookups run on the
+     * {@link WssoLdapExecutorService} and fail after its timeout.
+     * @param strId the WSSO GUID
+     * @return the future user, completed with null if the GUID is unknown or
+     *         found several times. Cancelling it interrupts the lookup.
+     */
+    public CompletableFuture<AdminUser> getUserPublicDataAsync( final String strId )
+    {
+        WssoDirectoryUser replicaUser = WssoDirectoryReplicaService.getInstance(  ).getUser( strId );
 
-            AppLogService.debug( this.getClass(  ).toString(  ) + " : Search users - LastName : " +
-                messageFormatParam[0] + "- FirstName : " + messageFormatParam[1] + "- Email : " +
-                messageFormatParam[2] );
+        if ( replicaUser != null )
+        {
+            return CompletableFuture.<AdminUser>completedFuture( replicaUser.toAdminWssoUser( this ) );
+        }
 
-            while ( ( userResults != null ) && userResults.hasMore(  ) )
-            {
-                sr = (SearchResult) userResults.next(  );
+        final String strUserSearchFilter = getUserSearchFilterByGuid( strId );
 
-                Attributes attributes = sr.getAttributes(  );
+        AppLogService.debug( this.getClass(  ).toString(  ) + " : create user - GUID : " + strId );
 
-                //Last Name
-                Attribute attributeLastName = attributes.get( ATTRIBUTE_FAMILY_NAME );
-                String strLastName = "";
+        CompletableFuture<WssoDirectoryUser> future = WssoUserCacheService.getInstance(  )
+                                                                          .getUserAsync( strId,
+                strGuid -> WssoLdapExecutorService.getInstance(  )
+                                                  .submit( () -> loadUserByGuid( strUserSearchFilter, strGuid ) ) );
 
-                if ( attributeLastName != null )
-                {
-                    strLastName = attributes.get( ATTRIBUTE_FAMILY_NAME ).get(  ).toString(  );
-                }
-                else
+        // An ambiguous GUID fails the lookup so that it is not kept as unknown by the cache
+        return WssoLdapExecutorService.propagateCancellation( future.<AdminUser>handle( ( user, exception ) -> 
                 {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + getDebugInfo( strUserSearchFilter ) + " - last name is null" );
-                }
+                    if ( exception == null )
+                    {
+                        return ( user == null ) ? null : user.toAdminWssoUser( this );
+                    }
 
-                //First Name
-                Attribute attributeFirstName = attributes.get( ATTRIBUTE_GIVEN_NAME );
-                String strFirstName = "";
+                    Throwable cause = ( exception instanceof CompletionException ) ? exception.getCause(  ) : exception;
 
-                if ( attributeLastName != null )
-                {
-                    strFirstName = attributeFirstName.get(  ).toString(  );
-                }
-                else
-                {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + getDebugInfo( strUserSearchFilter ) + " - first name is null" );
-                }
+                    if ( cause instanceof AmbiguousGuidException )
+                    {
+                        return null;
+                    }
 
-                //Email
-                Attribute attributeEmail = attributes.get( ATTRIBUTE_EMAIL );
-                String strEmail = "";
+                    throw ( exception instanceof CompletionException ) ? (CompletionException) exception
+                                                                       : new CompletionException( exception );
+                } ), future );
+    }
 
-                if ( attributeLastName != null )
-                {
-                    strEmail = attributeEmail.get(  ).toString(  );
-                }
-                else
-                {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + getDebugInfo( strUserSearchFilter ) + " - e-mail is null" );
-                }
+    /**
+     * Searches the users matching the criteria and hands them over one page at a
+     * time, in directory order, instead of building the whole list.
+     * The page size is set by the adminauthenticationwsso.ldap.pageSize property.
+     * @param strParameterLastName the last name prefix, or empty
+     * @param strParameterFirstName the first name prefix, or empty
+     * @param strParameterEmail the email prefix, or empty
+     * @param handler the page handler
+     * @throws NamingException if an LDAP error occurs
+     */
+    public void getUserList( String strParameterLastName, String strParameterFirstName, String strParameterEmail,
+        IWssoUserPageHandler handler ) throws NamingException
+    {
+        WssoLdapUtil.searchUsers( getUserSearchFilter( strParameterLastName, strParameterFirstName, strParameterEmail ),
+            handler );
+    }
 
-                //guid
-                Attribute attributeGuId = attributes.get( ATTRIBUTE_GUID );
-                String strWssoId = "";
+    /**
+     * Searches the users matching the criteria filter
+     * @param context the LDAP context
+     * @param strUserSearchFilter the search filter
+     * @return the users found, sorted and limited to the maximum number of results
+     * @throws NamingException if an LDAP error occurs
+     */
+    private List<WssoDirectoryUser> searchUserList( DirContext context, String strUserSearchFilter )
+        throws NamingException
+    {
+        final WssoSortedUserCollector collector = new WssoSortedUserCollector( WssoSortedUserCollector.getMaxResults(  ) );
 
-                if ( attributeGuId != null )
-                {
-                    strWssoId = attributeGuId.get(  ).toString(  );
-
-                    AdminWssoUser user = new AdminWssoUser( strWssoId, this );
-                    user.setLastName( strLastName );
-                    user.setFirstName( strFirstName );
-                    user.setEmail( strEmail );
-                    userList.add( user );
-                    AppLogService.debug( this.getClass(  ).toString(  ) + " : Result - LastName : " +
-                        user.getLastName(  ) + "- FirstName : " + user.getFirstName(  ) + "- Email : " +
-                        user.getEmail(  ) );
-                }
-                else
+        WssoLdapUtil.searchUserPages( context, strUserSearchFilter,
+            listUsers -> 
+            {
+                if ( AppLogService.isDebugEnabled(  ) )
                 {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + getDebugInfo( strUserSearchFilter ) + " - guid is null" );
+                    for ( WssoDirectoryUser user : listUsers )
+                    {
+                        AppLogService.debug( this.getClass(  ).toString(  ) + " : Result - LastName : " +
+                            user.getLastName(  ) + "- FirstName : " + user.getFirstName(  ) + "- Email : " +
+                            user.getEmail(  ) );
+                    }
                 }
-            }
 
-            Collections.sort( userList, COMPARATOR_USER );
+                return collector.handlePage( listUsers );
+            } );
 
-            return userList;
-        }
-        catch ( CommunicationException e )
-        {
-            AppLogService.error( "Error while searching for users '" + "' with search filter : " +
-                getDebugInfo( strUserSearchFilter ), e );
+        return collector.getUsers(  );
+    }
 
-            return null;
-        }
-        catch ( NamingException e )
-        {
-            AppLogService.error( "Error while searching for users", e );
+    /**
+     * Creates the admin users of sorted directory entries, up to the maximum
+     * number of results
+     * @param listUsers the directory entries, sorted
+     * @return the admin users
+     */
+    private List<AdminWssoUser> toAdminWssoUsers( List<WssoDirectoryUser> listUsers )
+    {
+        int nMaxResults = WssoSortedUserCollector.getMaxResults(  );
+        int nSize = ( nMaxResults > 0 ) ? Math.min( nMaxResults, listUsers.size(  ) ) : listUsers.size(  );
+        List<AdminWssoUser> userList = new ArrayList<AdminWssoUser>( nSize );
 
-            return null;
-        }
-        finally
+        for ( WssoDirectoryUser directoryUser : listUsers.subList( 0, nSize ) )
         {
-            try
-            {
-                LdapUtil.freeContext( context );
-            }
-            catch ( NamingException naming )
-            {
-                //todo
-            }
+            userList.add( directoryUser.toAdminWssoUser( this ) );
         }
+
+        return userList;
     }
 
-    /* (non-Javadoc)
-     * @see fr.paris.lutece.portal.business.user.authentication.AdminAuthentication#getUserPublicData(java.lang.String)
+    /**
+     * Loads the directory entry of a GUID with a pooled LDAP connection
+     * @param strUserSearchFilter the search filter
+     * @param strId the GUID
+     * @return the directory entry, or null if no user is found
+     * @throws NamingException if an LDAP error occurs or several users are found
      */
-    public AdminUser getUserPublicData( String strId )
+    private WssoDirectoryUser loadUserByGuid( final String strUserSearchFilter, final String strId )
+        throws NamingException
     {
-        AdminWssoUser user = null;
+        return WssoLdapContextPool.getInstance(  )
+                                  .execute( context -> searchUserByGuid( context, strUserSearchFilter, strId ) );
+    }
+
+    /**
+     * Searches the user having the given GUID
+     * @param context the LDAP context
+     * @param strUserSearchFilter the search filter
+     * @param strId the GUID
+     * @return the directory entry, or null if no user is found
+     * @throws NamingException if an LDAP error occurs or several users are found
+     */
+    private WssoDirectoryUser searchUserByGuid( DirContext context, String strUserSearchFilter, String strId )
+        throws NamingException
+    {
+        WssoDirectoryUser user = null;
         SearchResult sr = null;
-        Object[] messageFormatParam = new Object[1];
 
-        DirContext context = null;
+        NamingEnumeration userResults = LdapUtil.searchUsers( context, strUserSearchFilter, getUserDnSearchBase(  ),
+                "", WssoLdapUtil.createUserSearchControls(  ) );
 
-        messageFormatParam[0] = strId;
+        int count = 0;
 
-        String strUserSearchFilter = MessageFormat.format( getUserDnSearchFilterByGUID(  ), messageFormatParam );
+        while ( ( userResults != null ) && userResults.hasMore(  ) )
+        {
+            sr = (SearchResult) userResults.next(  );
+
+            Attributes attributes = sr.getAttributes(  );
+            String strWssoId = attributes.get( ATTRIBUTE_GUID ).get(  ).toString(  );
+            String strLastName = attributes.get( ATTRIBUTE_FAMILY_NAME ).get(  ).toString(  );
+            String strFirstName = attributes.get( ATTRIBUTE_GIVEN_NAME ).get(  ).toString(  );
+            String strEmail = attributes.get( ATTRIBUTE_EMAIL ).get(  ).toString(  );
+
+            user = new WssoDirectoryUser( strWssoId, strLastName, strFirstName, strEmail );
+            count++;
+            AppLogService.debug( this.getClass(  ).toString(  ) + " : Result - LastName : " + user.getLastName(  ) +
+                "- FirstName : " + user.getFirstName(  ) + "- Email : " + user.getEmail(  ) );
+        }
 
-        try
+        // More than one user found (failure)
+        if ( count > 1 )
         {
-            _scUserSearchControls = new SearchControls(  );
-            _scUserSearchControls.setSearchScope( getUserDnSearchScope(  ) );
-            _scUserSearchControls.setReturningObjFlag( true );
-            _scUserSearchControls.setCountLimit( 0 );
+            AppLogService.error( "More than one entry in the directory for id " + strId );
 
-            context = LdapUtil.getContext( getInitialContextProvider(  ), getProviderUrl(  ), getBindDn(  ),
-                    getBindPassword(  ) );
+            throw new AmbiguousGuidException( strId );
+        }
 
-            NamingEnumeration userResults = LdapUtil.searchUsers( context, strUserSearchFilter,
-                    getUserDnSearchBase(  ), "", _scUserSearchControls );
-            AppLogService.debug( this.getClass(  ).toString(  ) + " : create user - GUID : " + messageFormatParam[0] );
+        AppLogService.debug( WssoUserCacheService.getInstance(  ).getStatistics(  ) );
 
-            int count = 0;
+        return user;
+    }
 
-            while ( ( userResults != null ) && userResults.hasMore(  ) )
-            {
-                sr = (SearchResult) userResults.next(  );
-
-                Attributes attributes = sr.getAttributes(  );
-                String strWssoId = attributes.get( ATTRIBUTE_GUID ).get(  ).toString(  );
-                String strLastName = attributes.get( ATTRIBUTE_FAMILY_NAME ).get(  ).toString(  );
-                String strFirstName = attributes.get( ATTRIBUTE_GIVEN_NAME ).get(  ).toString(  );
-                String strEmail = attributes.get( ATTRIBUTE_EMAIL ).get(  ).toString(  );
-
-                user = new AdminWssoUser( strWssoId, this );
-                user.setLastName( strLastName );
-                user.setFirstName( strFirstName );
-                user.setEmail( strEmail );
-                count++;
-                AppLogService.debug( this.getClass(  ).toString(  ) + " : Result - LastName : " + user.getLastName(  ) +
-                    "- FirstName : " + user.getFirstName(  ) + "- Email : " + user.getEmail(  ) );
-            }
+    /**
+     * Builds the prefix search filter of the criteria
+     * @param strParameterLastName the last name prefix, or empty
+     * @param strParameterFirstName the first name prefix, or empty
+     * @param strParameterEmail the email prefix, or empty
+     * @return the LDAP search filter
+     */
+    private String getUserSearchFilter( String strParameterLastName, String strParameterFirstName,
+        String strParameterEmail )
+    {
+        Object[] messageFormatParam = new Object[3];
 
-            // More than one user found (failure)
-            if ( count > 1 )
-            {
-                AppLogService.error( "More than one entry in the directory for id " + strId );
+        messageFormatParam[0] = checkSyntax( strParameterLastName + CONSTANT_WILDCARD );
+        messageFormatParam[1] = checkSyntax( strParameterFirstName + CONSTANT_WILDCARD );
+        messageFormatParam[2] = checkSyntax( strParameterEmail + CONSTANT_WILDCARD );
 
-                return null;
-            }
+        AppLogService.debug( this.getClass(  ).toString(  ) + " : Search users - LastName : " + messageFormatParam[0] +
+            "- FirstName : " + messageFormatParam[1] + "- Email : " + messageFormatParam[2] );
 
-            return user;
-        }
-        catch ( CommunicationException e )
-        {
-            AppLogService.error( "Error while searching for users '" + "' with search filter : " +
-                getDebugInfo( strUserSearchFilter ), e );
+        return MessageFormat.format( getUserDnSearchFilterByCriteria(  ), messageFormatParam );
+    }
 
-            return null;
+    private String checkSyntax( String in )
+    {
+        return ( ( ( in == null ) || ( in.equals( "" ) ) ) ? "*" : in );
+    }
+
+    /**
+     * Waits for an asynchronous lookup, for the synchronous API
+     * @param <T> the result type
+     * @param future the future result
+     * @param searchFilter supplies the search filter logged on a communication error
+     * @return the result, or null if the lookup failed
+     */
+    private <T> T waitFor( CompletableFuture<T> future, Supplier<String> searchFilter )
+    {
+        try
+        {
+            return future.get(  );
         }
-        catch ( NamingException e )
+        catch ( InterruptedException e )
         {
-            AppLogService.error( "Error while searching for users", e );
+            future.cancel( true );
+            Thread.currentThread(  ).interrupt(  );
 
             return null;
         }
-        finally
+        catch ( ExecutionException e )
         {
-            try
+            if ( e.getCause(  ) instanceof CommunicationException )
             {
-                LdapUtil.freeContext( context );
+                AppLogService.error( "Error while searching for users '" + "' with search filter : " +
+                    getDebugInfo( searchFilter.get(  ) ), e.getCause(  ) );
             }
-            catch ( NamingException naming )
+            else
             {
-                //todo
+                AppLogService.error( "Error while searching for users", e.getCause(  ) );
             }
+
+            return null;
         }
     }
 
-    private String checkSyntax( String in )
+    /**
+     * @param strId the WSSO GUID
+     * @return the search filter of the user
+     */
+    private String getUserSearchFilterByGuid( String strId )
     {
-        return ( ( ( in == null ) || ( in.equals( "" ) ) ) ? "*" : in );
+        return MessageFormat.format( getUserDnSearchFilterByGUID(  ), new Object[] { strId } );
     }
 
     private String getDebugInfo( String strUserSearchFilter )
@@ -549,16 +600,6 @@ public class AdminWssoAuthentication implements AdminAuthentication
         return sb.toString(  );
     }
 
-    private String getInitialContextProvider(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_INITIAL_CONTEXT_PROVIDER );
-    }
-
-    private String getProviderUrl(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_PROVIDER_URL );
-    }
-
     private String getUserDnSearchBase(  )
     {
         return AppPropertiesService.getProperty( PROPERTY_USER_DN_SEARCH_BASE );
@@ -574,25 +615,61 @@ public class AdminWssoAuthentication implements AdminAuthentication
         return AppPropertiesService.getProperty( PROPERTY_USER_DN_SEARCH_FILTER_BY_CRITERIA );
     }
 
-    private int getUserDnSearchScope(  )
+    /**
+     * Thrown when a GUID matches several directory entries
+     */
+    private static final class AmbiguousGuidException extends NamingException
     {
-        String strSearchScope = AppPropertiesService.getProperty( PROPERTY_USER_SUBTREE );
+        private static final long serialVersionUID = 1L;
 
-        if ( strSearchScope.equalsIgnoreCase( "true" ) )
+        /**
+         * Constructor
+         * @param strId the GUID
+         */
+        AmbiguousGuidException( String strId )
         {
-            return SearchControls.SUBTREE_SCOPE;
+            super( "More than one entry in the directory for id " + strId );
         }
-
-        return SearchControls.ONELEVEL_SCOPE;
     }
 
-    private String getBindDn(  )
+    /**
+     * WSSO user bound to the HTTP session with the fingerprint of the cookies it was built from
+     */
+    private static final class WssoSessionUser implements Serializable
     {
-        return AppPropertiesService.getProperty( PROPERTY_BIND_DN );
-    }
+        private static final long serialVersionUID = 1L;
+        private final long _lFingerprint;
+        private final AdminWssoUser _user;
+
+        /**
+         * Constructor
+         * @param lFingerprint the fingerprint of the WSSO cookies
+         * @param user the user built from the WSSO cookies
+         */
+        WssoSessionUser( long lFingerprint, AdminWssoUser user )
+        {
+            _lFingerprint = lFingerprint;
+            _user = user;
+        }
 
-    private String getBindPassword(  )
-    {
-        return AppPropertiesService.getProperty( PROPERTY_BIND_PASSWORD );
+        /**
+         * Checks whether the user was built from the same cookies. The GUID is
+         * compared too so that a fingerprint collision cannot switch identities.
+         * @param lFingerprint the fingerprint of the current WSSO cookies
+         * @param strGuid the GUID of the current WSSO cookies
+         * @return true if the user can be reused
+         */
+        boolean matches( long lFingerprint, String strGuid )
+        {
+            return ( _lFingerprint == lFingerprint ) && strGuid.equals( _user.getAccessCode(  ) );
+        }
+
+        /**
+         * @return the user
+         */
+        AdminWssoUser getUser(  )
+        {
+            return _user;
+        }
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * IWssoImportHashDAO Interface
+ */
+public interface IWssoImportHashDAO
+{
+    /**
+     * Loads the content hashes of the last imported line of every email
+     * @param plugin the plugin
+     * @return the hashes by email
+     */
+    Map<String, String> selectHashes( Plugin plugin );
+
+    /**
+     * Loads the content hashes of the last imported line of some emails
+     * @param listEmails the emails, in lower case
+     * @param plugin the plugin
+     * @return the hashes by email, for the emails imported before
+     */
+    Map<String, String> selectHashes( Collection<String> listEmails, Plugin plugin );
+
+    /**
+     * Stores the content hashes of the last imported line of several emails, with
+     * a statement batch for the deletes and another for the inserts
+     * @param mapHashes the content hashes by email
+     * @param dateImport the import date
+     * @param plugin the plugin
+     */
+    void store( Map<String, String> mapHashes, Timestamp dateImport, Plugin plugin );
+
+    /**
+     * Loads the emails of the admin users, from the core database
+     * @return the emails, in lower case
+     */
+    Set<String> selectAdminUserEmails(  );
+
+    /**
+     * Loads the emails of the admin users among some emails, from the core database
+     * @param listEmails the emails, in lower case
+     * @return the emails of admin users, in lower case
+     */
+    Set<String> selectAdminUserEmails( Collection<String> listEmails );
+}
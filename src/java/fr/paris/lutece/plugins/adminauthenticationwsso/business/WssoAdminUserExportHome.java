@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.io.IOException;
+
+
+/**
+ * This class provides instances management methods for the export of the admin users to WSSO
+ */
+public final class WssoAdminUserExportHome
+{
+    // Static variable pointed at the DAO instance
+    private static IWssoAdminUserExportDAO _dao = SpringContextService.getBean( "adminauthenticationwsso.wssoAdminUserExportDAO" );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private WssoAdminUserExportHome(  )
+    {
+    }
+
+    /**
+     * Reads the access codes of the active admin users in access code order,
+     * without loading them all in memory
+     * @param handler the handler of the access codes
+     * @throws IOException if the handler fails
+     */
+    public static void findActiveAccessCodes( IWssoAccessCodeHandler handler )
+        throws IOException
+    {
+        _dao.selectActiveAccessCodes( handler );
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.AdminWssoUser;
+import fr.paris.lutece.portal.business.user.authentication.AdminAuthentication;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.text.CollationKey;
+import java.text.Collator;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+
+/**
+ * Immutable copy of the attributes of a WSSO directory entry
+ */
+public final class WssoDirectoryUser
+{
+    /**
+     * Order of the user lists : last name, first name then email, compared with
+     * the collation keys of the entries
+     */
+    public static final Comparator<WssoDirectoryUser> COMPARATOR = new Comparator<WssoDirectoryUser>(  )
+        {
+            public int compare( WssoDirectoryUser user1, WssoDirectoryUser user2 )
+            {
+                SortKey key1 = user1.getSortKey(  );
+                SortKey key2 = user2.getSortKey(  );
+                int nOrder = key1._keyLastName.compareTo( key2._keyLastName );
+
+                if ( nOrder == 0 )
+                {
+                    nOrder = key1._keyFirstName.compareTo( key2._keyFirstName );
+
+                    if ( nOrder == 0 )
+                    {
+                        nOrder = key1._keyEmail.compareTo( key2._keyEmail );
+                    }
+                }
+
+                return nOrder;
+            }
+        };
+
+    private static final String PROPERTY_SORT_LOCALE = "adminauthenticationwsso.userList.sortLocale";
+
+    /** Ignores case but not accents. The collator methods are synchronized, so it can be shared. */
+    private static volatile Collator _collator;
+    private final String _strGuid;
+    private final String _strLastName;
+    private final String _strFirstName;
+    private final String _strEmail;
+    private SortKey _sortKey;
+
+    /**
+     * Constructor
+     * @param strGuid the WSSO GUID
+     * @param strLastName the last name
+     * @param strFirstName the first name
+     * @param strEmail the email
+     */
+    public WssoDirectoryUser( String strGuid, String strLastName, String strFirstName, String strEmail )
+    {
+        _strGuid = strGuid;
+        _strLastName = strLastName;
+        _strFirstName = strFirstName;
+        _strEmail = strEmail;
+    }
+
+    /**
+     * @return the WSSO GUID
+     */
+    public String getGuid(  )
+    {
+        return _strGuid;
+    }
+
+    /**
+     * @return the last name
+     */
+    public String getLastName(  )
+    {
+        return _strLastName;
+    }
+
+    /**
+     * @return the first name
+     */
+    public String getFirstName(  )
+    {
+        return _strFirstName;
+    }
+
+    /**
+     * @return the email
+     */
+    public String getEmail(  )
+    {
+        return _strEmail;
+    }
+
+    /**
+     * Returns the collation keys of the entry, computed on the first sort
+     * @return the sort key
+     */
+    private SortKey getSortKey(  )
+    {
+        SortKey sortKey = _sortKey;
+
+        if ( sortKey == null )
+        {
+            // Racing threads compute equal keys, and the final fields make the holder safe to publish
+            sortKey = new SortKey( this );
+            _sortKey = sortKey;
+        }
+
+        return sortKey;
+    }
+
+    /**
+     * Sets the locale of the sort order instead of the one of the properties.
+     * The entries already sorted keep their collation keys.
+     * @param locale the sort locale
+     */
+    public static void setSortLocale( Locale locale )
+    {
+        _collator = createCollator( locale );
+    }
+
+    /**
+     * Returns the collator, created on the first sort from the sort locale
+     * property, which defaults to the portal locale
+     * @return the collator
+     */
+    private static Collator getCollator(  )
+    {
+        Collator collator = _collator;
+
+        if ( collator == null )
+        {
+            String strLocale = AppPropertiesService.getProperty( PROPERTY_SORT_LOCALE, "" ).trim(  );
+            collator = createCollator( strLocale.isEmpty(  ) ? I18nService.getDefaultLocale(  ) : new Locale( strLocale ) );
+            _collator = collator;
+        }
+
+        return collator;
+    }
+
+    /**
+     * Creates the collator of a locale
+     * @param locale the locale, or null for the default locale of the JVM
+     * @return the collator
+     */
+    private static Collator createCollator( Locale locale )
+    {
+        Collator collator = Collator.getInstance( ( locale == null ) ? Locale.getDefault(  ) : locale );
+        collator.setStrength( Collator.SECONDARY );
+        collator.setDecomposition( Collator.CANONICAL_DECOMPOSITION );
+
+        return collator;
+    }
+
+    /**
+     * Creates a new admin user from the directory attributes
+     * @param authenticationService the authentication service of the user
+     * @return the admin user
+     */
+    public AdminWssoUser toAdminWssoUser( AdminAuthentication authenticationService )
+    {
+        AdminWssoUser user = new AdminWssoUser( _strGuid, authenticationService );
+        user.setLastName( _strLastName );
+        user.setFirstName( _strFirstName );
+        user.setEmail( _strEmail );
+
+        return user;
+    }
+
+    /**
+     * Collation keys of the sorted attributes
+     */
+    private static final class SortKey
+    {
+        private final CollationKey _keyLastName;
+        private final CollationKey _keyFirstName;
+        private final CollationKey _keyEmail;
+
+        /**
+         * Constructor
+         * @param user the directory entry
+         */
+        private SortKey( WssoDirectoryUser user )
+        {
+            _keyLastName = getCollationKey( user.getLastName(  ) );
+            _keyFirstName = getCollationKey( user.getFirstName(  ) );
+            _keyEmail = getCollationKey( user.getEmail(  ) );
+        }
+
+        /**
+         * @param strValue a value, possibly null
+         * @return the collation key of the value
+         */
+        private static CollationKey getCollationKey( String strValue )
+        {
+            return getCollator(  ).getCollationKey( ( strValue == null ) ? "" : strValue );
+        }
+    }
+}
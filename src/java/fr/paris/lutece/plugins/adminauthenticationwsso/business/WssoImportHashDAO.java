@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Timestamp;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class provides Data Access methods for the content hashes of the imported lines
+ */
+public final class WssoImportHashDAO implements IWssoImportHashDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_ALL = "SELECT email, content_hash FROM adminauthenticationwsso_import_hash";
+    private static final String SQL_QUERY_SELECT_BY_EMAILS = "SELECT email, content_hash FROM adminauthenticationwsso_import_hash WHERE email IN ";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM adminauthenticationwsso_import_hash WHERE email = ?";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO adminauthenticationwsso_import_hash ( email, content_hash, date_import ) VALUES ( ?, ?, ? )";
+    private static final String SQL_QUERY_SELECT_ADMIN_USER_EMAILS = "SELECT email FROM core_admin_user";
+    private static final String SQL_QUERY_SELECT_ADMIN_USER_EMAILS_IN = "SELECT email FROM core_admin_user WHERE LOWER( email ) IN ";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> selectHashes( Plugin plugin )
+    {
+        Map<String, String> mapHashes = new HashMap<String, String>(  );
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ALL, plugin );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            mapHashes.put( daoUtil.getString( 1 ), daoUtil.getString( 2 ) );
+        }
+
+        daoUtil.free(  );
+
+        return mapHashes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> selectHashes( Collection<String> listEmails, Plugin plugin )
+    {
+        Map<String, String> mapHashes = new HashMap<String, String>(  );
+
+        if ( listEmails.isEmpty(  ) )
+        {
+            return mapHashes;
+        }
+
+        DAOUtil daoUtil = new DAOUtil( getInQuery( SQL_QUERY_SELECT_BY_EMAILS, listEmails.size(  ) ), plugin );
+        setEmails( daoUtil, listEmails );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            mapHashes.put( daoUtil.getString( 1 ), daoUtil.getString( 2 ) );
+        }
+
+        daoUtil.free(  );
+
+        return mapHashes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store( Map<String, String> mapHashes, Timestamp dateImport, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin );
+
+        for ( String strEmail : mapHashes.keySet(  ) )
+        {
+            daoUtil.setString( 1, strEmail );
+            daoUtil.addBatch(  );
+        }
+
+        daoUtil.executeBatch(  );
+        daoUtil.free(  );
+
+        daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin );
+
+        for ( Map.Entry<String, String> entry : mapHashes.entrySet(  ) )
+        {
+            daoUtil.setString( 1, entry.getKey(  ) );
+            daoUtil.setString( 2, entry.getValue(  ) );
+            daoUtil.setTimestamp( 3, dateImport );
+            daoUtil.addBatch(  );
+        }
+
+        daoUtil.executeBatch(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> selectAdminUserEmails(  )
+    {
+        Set<String> setEmails = new HashSet<String>(  );
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ADMIN_USER_EMAILS );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            String strEmail = daoUtil.getString( 1 );
+
+            if ( strEmail != null )
+            {
+                setEmails.add( strEmail.toLowerCase( Locale.ROOT ) );
+            }
+        }
+
+        daoUtil.free(  );
+
+        return setEmails;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> selectAdminUserEmails( Collection<String> listEmails )
+    {
+        Set<String> setEmails = new HashSet<String>(  );
+
+        if ( listEmails.isEmpty(  ) )
+        {
+            return setEmails;
+        }
+
+        DAOUtil daoUtil = new DAOUtil( getInQuery( SQL_QUERY_SELECT_ADMIN_USER_EMAILS_IN, listEmails.size(  ) ) );
+        setEmails( daoUtil, listEmails );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            setEmails.add( daoUtil.getString( 1 ).toLowerCase( Locale.ROOT ) );
+        }
+
+        daoUtil.free(  );
+
+        return setEmails;
+    }
+
+    /**
+     * @param strQuery the query, without its IN list
+     * @param nSize the number of values of the IN list
+     * @return the query with its IN list
+     */
+    private static String getInQuery( String strQuery, int nSize )
+    {
+        StringBuilder sbQuery = new StringBuilder( strQuery ).append( '(' );
+
+        for ( int i = 0; i < nSize; i++ )
+        {
+            sbQuery.append( ( i == 0 ) ? "?" : ",?" );
+        }
+
+        return sbQuery.append( ')' ).toString(  );
+    }
+
+    /**
+     * Sets the emails as the parameters of an IN list
+     * @param daoUtil the statement
+     * @param listEmails the emails
+     */
+    private static void setEmails( DAOUtil daoUtil, Collection<String> listEmails )
+    {
+        int nIndex = 1;
+
+        for ( String strEmail : listEmails )
+        {
+            daoUtil.setString( nIndex++, strEmail );
+        }
+    }
+}
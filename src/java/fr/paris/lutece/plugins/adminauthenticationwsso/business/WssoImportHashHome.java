@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.util.sql.TransactionManager;
+
+import java.sql.Timestamp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class provides instances management methods for the content hashes of the imported lines
+ */
+public final class WssoImportHashHome
+{
+    private static final String PLUGIN_NAME = "adminauthenticationwsso";
+
+    // Static variable pointed at the DAO instance
+    private static IWssoImportHashDAO _dao = SpringContextService.getBean( "adminauthenticationwsso.wssoImportHashDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private WssoImportHashHome(  )
+    {
+    }
+
+    /**
+     * Loads the content hashes of the last imported line of every email
+     * @return the hashes by email, in lower case
+     */
+    public static Map<String, String> findAll(  )
+    {
+        return _dao.selectHashes( _plugin );
+    }
+
+    /**
+     * Loads the content hashes of the last imported line of some emails
+     * @param listEmails the emails, in lower case
+     * @return the hashes by email, for the emails imported before
+     */
+    public static Map<String, String> findByEmails( Collection<String> listEmails )
+    {
+        return _dao.selectHashes( listEmails, _plugin );
+    }
+
+    /**
+     * Stores the content hashes of imported lines, in a single transaction
+     * @param mapHashes the hashes by email, in lower case
+     */
+    public static void store( Map<String, String> mapHashes )
+    {
+        if ( mapHashes.isEmpty(  ) )
+        {
+            return;
+        }
+
+        Timestamp dateImport = new Timestamp( System.currentTimeMillis(  ) );
+        TransactionManager.beginTransaction( _plugin );
+
+        try
+        {
+            _dao.store( mapHashes, dateImport, _plugin );
+            TransactionManager.commitTransaction( _plugin );
+        }
+        catch ( Exception e )
+        {
+            TransactionManager.rollBack( _plugin, e );
+
+            throw new AppException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Loads the emails of the admin users
+     * @return the emails, in lower case
+     */
+    public static Set<String> findAdminUserEmails(  )
+    {
+        return _dao.selectAdminUserEmails(  );
+    }
+
+    /**
+     * Loads the emails of the admin users among some emails
+     * @param listEmails the emails, in lower case
+     * @return the emails of admin users, in lower case
+     */
+    public static Set<String> findAdminUserEmails( Collection<String> listEmails )
+    {
+        return _dao.selectAdminUserEmails( listEmails );
+    }
+}
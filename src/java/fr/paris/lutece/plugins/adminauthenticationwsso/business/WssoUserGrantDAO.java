@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class provides Data Access methods for the grants of the admin users, on
+ * the core admin tables. The inserts and deletes are sent as statement batches.
+ */
+public final class WssoUserGrantDAO implements IWssoUserGrantDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_RIGHTS = "SELECT id_user, right_id FROM core_user_right WHERE id_user IN ";
+    private static final String SQL_QUERY_SELECT_ROLES = "SELECT id_user, role_key FROM core_user_role WHERE id_user IN ";
+    private static final String SQL_QUERY_SELECT_WORKGROUPS = "SELECT id_user, workgroup_key FROM core_admin_workgroup_user WHERE id_user IN ";
+    private static final String SQL_QUERY_INSERT_RIGHT = "INSERT INTO core_user_right ( right_id, id_user ) VALUES ( ?, ? )";
+    private static final String SQL_QUERY_INSERT_ROLE = "INSERT INTO core_user_role ( role_key, id_user ) VALUES ( ?, ? )";
+    private static final String SQL_QUERY_INSERT_WORKGROUP = "INSERT INTO core_admin_workgroup_user ( workgroup_key, id_user ) VALUES ( ?, ? )";
+    private static final String SQL_QUERY_DELETE_RIGHT = "DELETE FROM core_user_right WHERE right_id = ? AND id_user = ?";
+    private static final String SQL_QUERY_DELETE_ROLE = "DELETE FROM core_user_role WHERE role_key = ? AND id_user = ?";
+    private static final String SQL_QUERY_DELETE_WORKGROUP = "DELETE FROM core_admin_workgroup_user WHERE workgroup_key = ? AND id_user = ?";
+    private static final int GRANT_RIGHT = 0;
+    private static final int GRANT_ROLE = 1;
+    private static final int GRANT_WORKGROUP = 2;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, WssoUserGrants> selectGrants( Collection<Integer> listIdUsers )
+    {
+        Map<Integer, WssoUserGrants> mapGrants = new LinkedHashMap<Integer, WssoUserGrants>(  );
+
+        for ( Integer nIdUser : listIdUsers )
+        {
+            mapGrants.put( nIdUser, new WssoUserGrants( nIdUser ) );
+        }
+
+        if ( !mapGrants.isEmpty(  ) )
+        {
+            selectGrants( SQL_QUERY_SELECT_RIGHTS, mapGrants, GRANT_RIGHT );
+            selectGrants( SQL_QUERY_SELECT_ROLES, mapGrants, GRANT_ROLE );
+            selectGrants( SQL_QUERY_SELECT_WORKGROUPS, mapGrants, GRANT_WORKGROUP );
+        }
+
+        return mapGrants;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insertGrants( Collection<WssoUserGrants> listGrants )
+    {
+        executeBatch( SQL_QUERY_INSERT_RIGHT, listGrants, GRANT_RIGHT );
+        executeBatch( SQL_QUERY_INSERT_ROLE, listGrants, GRANT_ROLE );
+        executeBatch( SQL_QUERY_INSERT_WORKGROUP, listGrants, GRANT_WORKGROUP );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteGrants( Collection<WssoUserGrants> listGrants )
+    {
+        executeBatch( SQL_QUERY_DELETE_RIGHT, listGrants, GRANT_RIGHT );
+        executeBatch( SQL_QUERY_DELETE_ROLE, listGrants, GRANT_ROLE );
+        executeBatch( SQL_QUERY_DELETE_WORKGROUP, listGrants, GRANT_WORKGROUP );
+    }
+
+    /**
+     * Loads one kind of grant of several users
+     * @param strQuery the select query, without its IN list
+     * @param mapGrants the grants by user id, completed with the loaded ones
+     * @param nGrantType the kind of grant
+     */
+    private static void selectGrants( String strQuery, Map<Integer, WssoUserGrants> mapGrants, int nGrantType )
+    {
+        StringBuilder sbQuery = new StringBuilder( strQuery ).append( '(' );
+
+        for ( int i = 0; i < mapGrants.size(  ); i++ )
+        {
+            sbQuery.append( ( i == 0 ) ? "?" : ",?" );
+        }
+
+        sbQuery.append( ')' );
+
+        DAOUtil daoUtil = new DAOUtil( sbQuery.toString(  ) );
+        int nIndex = 1;
+
+        for ( Integer nIdUser : mapGrants.keySet(  ) )
+        {
+            daoUtil.setInt( nIndex++, nIdUser );
+        }
+
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            getGrants( mapGrants.get( daoUtil.getInt( 1 ) ), nGrantType ).add( daoUtil.getString( 2 ) );
+        }
+
+        daoUtil.free(  );
+    }
+
+    /**
+     * Runs a statement batch on one kind of grant
+     * @param strQuery the query, with the grant and the user id as parameters
+     * @param listGrants the grants
+     * @param nGrantType the kind of grant
+     */
+    private static void executeBatch( String strQuery, Collection<WssoUserGrants> listGrants, int nGrantType )
+    {
+        DAOUtil daoUtil = new DAOUtil( strQuery );
+        int nBatchSize = 0;
+
+        for ( WssoUserGrants grants : listGrants )
+        {
+            for ( String strGrant : getGrants( grants, nGrantType ) )
+            {
+                daoUtil.setString( 1, strGrant );
+                daoUtil.setInt( 2, grants.getIdUser(  ) );
+                daoUtil.addBatch(  );
+                nBatchSize++;
+            }
+        }
+
+        if ( nBatchSize > 0 )
+        {
+            daoUtil.executeBatch(  );
+        }
+
+        daoUtil.free(  );
+    }
+
+    /**
+     * @param grants the grants of a user
+     * @param nGrantType a kind of grant
+     * @return the grants of this kind
+     */
+    private static Set<String> getGrants( WssoUserGrants grants, int nGrantType )
+    {
+        switch ( nGrantType )
+        {
+            case GRANT_RIGHT:
+                return grants.getRights(  );
+
+            case GRANT_ROLE:
+                return grants.getRoles(  );
+
+            default:
+                return grants.getWorkgroups(  );
+        }
+    }
+}
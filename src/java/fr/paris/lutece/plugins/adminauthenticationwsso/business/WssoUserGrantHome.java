@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.util.sql.TransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class provides instances management methods for the grants of the admin users
+ */
+public final class WssoUserGrantHome
+{
+    // Static variable pointed at the DAO instance
+    private static IWssoUserGrantDAO _dao = SpringContextService.getBean( "adminauthenticationwsso.wssoUserGrantDAO" );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private WssoUserGrantHome(  )
+    {
+    }
+
+    /**
+     * Sets the grants of users, writing only the differences with the stored ones.
+     * The rights and roles not given are removed, the workgroups are only added.
+     * The grants are read and written in a single transaction of the core
+     * connection pool, which holds the admin user tables.
+     * @param listGrants the grants of the users
+     */
+    public static void storeGrants( Collection<WssoUserGrants> listGrants )
+    {
+        TransactionManager.beginTransaction( null );
+
+        try
+        {
+            storeGrantsDifferences( listGrants );
+            TransactionManager.commitTransaction( null );
+        }
+        catch ( Exception e )
+        {
+            TransactionManager.rollBack( null, e );
+
+            throw new AppException( e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Writes the differences between the given grants and the stored ones
+     * @param listGrants the grants of the users
+     */
+    private static void storeGrantsDifferences( Collection<WssoUserGrants> listGrants )
+    {
+        List<Integer> listIdUsers = new ArrayList<Integer>( listGrants.size(  ) );
+
+        for ( WssoUserGrants grants : listGrants )
+        {
+            listIdUsers.add( grants.getIdUser(  ) );
+        }
+
+        Map<Integer, WssoUserGrants> mapStoredGrants = _dao.selectGrants( listIdUsers );
+        List<WssoUserGrants> listRemovedGrants = new ArrayList<WssoUserGrants>(  );
+        List<WssoUserGrants> listAddedGrants = new ArrayList<WssoUserGrants>(  );
+
+        for ( WssoUserGrants grants : listGrants )
+        {
+            WssoUserGrants storedGrants = mapStoredGrants.get( grants.getIdUser(  ) );
+            WssoUserGrants removedGrants = new WssoUserGrants( grants.getIdUser(  ) );
+            WssoUserGrants addedGrants = new WssoUserGrants( grants.getIdUser(  ) );
+
+            removedGrants.getRights(  ).addAll( storedGrants.getRights(  ) );
+            removedGrants.getRights(  ).removeAll( grants.getRights(  ) );
+            removedGrants.getRoles(  ).addAll( storedGrants.getRoles(  ) );
+            removedGrants.getRoles(  ).removeAll( grants.getRoles(  ) );
+
+            addedGrants.getRights(  ).addAll( grants.getRights(  ) );
+            addedGrants.getRights(  ).removeAll( storedGrants.getRights(  ) );
+            addedGrants.getRoles(  ).addAll( grants.getRoles(  ) );
+            addedGrants.getRoles(  ).removeAll( storedGrants.getRoles(  ) );
+            addedGrants.getWorkgroups(  ).addAll( grants.getWorkgroups(  ) );
+            addedGrants.getWorkgroups(  ).removeAll( storedGrants.getWorkgroups(  ) );
+
+            if ( !removedGrants.isEmpty(  ) )
+            {
+                listRemovedGrants.add( removedGrants );
+            }
+
+            if ( !addedGrants.isEmpty(  ) )
+            {
+                listAddedGrants.add( addedGrants );
+            }
+        }
+
+        if ( !listRemovedGrants.isEmpty(  ) )
+        {
+            _dao.deleteGrants( listRemovedGrants );
+        }
+
+        if ( !listAddedGrants.isEmpty(  ) )
+        {
+            _dao.insertGrants( listAddedGrants );
+        }
+    }
+}
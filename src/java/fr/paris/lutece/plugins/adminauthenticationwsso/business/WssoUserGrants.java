@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.business;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Rights, roles and workgroups granted to an admin user
+ */
+public class WssoUserGrants
+{
+    private final int _nIdUser;
+    private final Set<String> _setRights = new LinkedHashSet<String>(  );
+    private final Set<String> _setRoles = new LinkedHashSet<String>(  );
+    private final Set<String> _setWorkgroups = new LinkedHashSet<String>(  );
+
+    /**
+     * Constructor
+     * @param nIdUser the admin user id
+     */
+    public WssoUserGrants( int nIdUser )
+    {
+        _nIdUser = nIdUser;
+    }
+
+    /**
+     * @return the admin user id
+     */
+    public int getIdUser(  )
+    {
+        return _nIdUser;
+    }
+
+    /**
+     * @return the right ids, which can be added to
+     */
+    public Set<String> getRights(  )
+    {
+        return _setRights;
+    }
+
+    /**
+     * @return the role keys, which can be added to
+     */
+    public Set<String> getRoles(  )
+    {
+        return _setRoles;
+    }
+
+    /**
+     * @return the workgroup keys, which can be added to
+     */
+    public Set<String> getWorkgroups(  )
+    {
+        return _setWorkgroups;
+    }
+
+    /**
+     * @return true if no right, role or workgroup is granted
+     */
+    public boolean isEmpty(  )
+    {
+        return _setRights.isEmpty(  ) && _setRoles.isEmpty(  ) && _setWorkgroups.isEmpty(  );
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.business.user.attribute.AdminUserField;
+import fr.paris.lutece.portal.service.user.attribute.AdminUserFieldListenerService;
+
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * Admin user field listener, called by the core when an admin user is created,
+ * modified or removed, and by the WSSO user import for every user it writes.
+ * Every change schedules an export of the WSSO users file.
+ */
+public class WssoAdminUserChangeListener extends AdminUserFieldListenerService
+{
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doCreateUserFields( AdminUser user, HttpServletRequest request, Locale locale )
+    {
+        super.doCreateUserFields( user, request, locale );
+        WssoExportScheduler.getInstance(  ).notifyChange(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doCreateUserFields( AdminUser user, List<AdminUserField> listUserFields, Locale locale )
+    {
+        super.doCreateUserFields( user, listUserFields, locale );
+        WssoExportScheduler.getInstance(  ).notifyChange(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doModifyUserFields( AdminUser user, HttpServletRequest request, Locale locale, AdminUser currentUser )
+    {
+        super.doModifyUserFields( user, request, locale, currentUser );
+        WssoExportScheduler.getInstance(  ).notifyChange(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doRemoveUserFields( AdminUser user, HttpServletRequest request, Locale locale )
+    {
+        super.doRemoveUserFields( user, request, locale );
+        WssoExportScheduler.getInstance(  ).notifyChange(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doRemoveUserFields( AdminUser user, Locale locale )
+    {
+        super.doRemoveUserFields( user, locale );
+        WssoExportScheduler.getInstance(  ).notifyChange(  );
+    }
+}
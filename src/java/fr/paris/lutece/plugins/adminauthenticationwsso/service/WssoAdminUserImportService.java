@@ -34,37 +34,47 @@
 package fr.paris.lutece.plugins.adminauthenticationwsso.service;
 
 import fr.paris.lutece.plugins.adminauthenticationwsso.AdminWssoUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoUserGrants;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoCsvLineParser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoDirectorySession;
 import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoLdapUtil;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.business.user.AdminUserHome;
 import fr.paris.lutece.portal.business.user.attribute.AdminUserField;
 import fr.paris.lutece.portal.business.user.attribute.AdminUserFieldHome;
-import fr.paris.lutece.portal.business.user.attribute.IAttribute;
 import fr.paris.lutece.portal.business.user.attribute.ISimpleValuesAttributes;
 import fr.paris.lutece.portal.business.user.authentication.LuteceDefaultAdminUser;
-import fr.paris.lutece.portal.business.workgroup.AdminWorkgroupHome;
 import fr.paris.lutece.portal.service.admin.AdminUserService;
 import fr.paris.lutece.portal.service.admin.ImportAdminUserService;
 import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
 import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
 import fr.paris.lutece.portal.service.i18n.I18nService;
-import fr.paris.lutece.portal.service.plugin.Plugin;
-import fr.paris.lutece.portal.service.plugin.PluginService;
-import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.user.attribute.AdminUserFieldListenerService;
-import fr.paris.lutece.portal.service.user.attribute.AttributeService;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.sql.Timestamp;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import javax.naming.directory.DirContext;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NamingException;
+import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.lang3.StringUtils;
 
 
@@ -86,69 +96,711 @@ public class WssoAdminUserImportService extends ImportAdminUserService
     private static final String MESSAGE_NO_STATUS = "adminauthenticationwsso.import_users_from_file.importNoStatus";
     private static final String MESSAGE_ERROR_USER_EMAIL_NOT_FOUND = "adminauthenticationwsso.import_users_from_file.emailNotFound";
     private static final String MESSAGE_ERROR_SEVERAL_SAME_EMAIL = "adminauthenticationwsso.import_users_from_file.manyUsersWithThisEmail";
+    private static final String MESSAGE_ERROR_READING_FILE = "adminauthenticationwsso.import_users_from_file.errorReadingFile";
+    private static final String MESSAGE_ERROR_SAVING_GRANTS = "adminauthenticationwsso.import_users_from_file.errorSavingGrants";
+    private static final String MESSAGE_IMPORT_SUMMARY = "adminauthenticationwsso.import_users_from_file.importSummary";
+    private static final String MESSAGE_IMPORT_JOB_RUNNING = "adminauthenticationwsso.import_users_from_file.importJobRunning";
+    private static final String MESSAGE_TOO_MANY_IMPORT_JOBS = "adminauthenticationwsso.import_users_from_file.tooManyImportJobs";
+    private static final String MESSAGE_VALIDATION_SUMMARY = "adminauthenticationwsso.import_users_from_file.validationSummary";
     
     
-    private static DirContext _context;
-    private static final AttributeService _attributeService = AttributeService.getInstance( );
+    //Properties
+    private static final String PROPERTY_IMPORT_LDAP_BATCH_SIZE = "adminauthenticationwsso.import.ldapBatchSize";
+    private static final int DEFAULT_IMPORT_LDAP_BATCH_SIZE = 100;
+    private static final String PROPERTY_IMPORT_EMAIL_EXACT_MATCH = "adminauthenticationwsso.import.email.exactMatch";
+    private static final String PROPERTY_IMPORT_PIPELINE_ENABLED = "adminauthenticationwsso.import.pipeline.enabled";
+    private static final String PROPERTY_IMPORT_STREAMING_FILE_SIZE = "adminauthenticationwsso.import.streaming.fileSize";
+    private static final long DEFAULT_IMPORT_STREAMING_FILE_SIZE = 5242880L;
+    private static final String PROPERTY_VALIDATION_LDAP_THREADS = "adminauthenticationwsso.import.validation.ldapThreads";
+    private static final int DEFAULT_VALIDATION_LDAP_THREADS = 4;
+    static final int CONSTANT_EMAIL_COLUMN = 3;
+    private static final int CONSTANT_STATUS_COLUMN = 4;
+    private static final int CONSTANT_LEVEL_COLUMN = 6;
+    private static final String THREAD_NAME_VALIDATION_PREFIX = "adminauthenticationwsso-validation-";
+    private static final AtomicInteger _nValidationThreadCount = new AtomicInteger( );
+    
     
     /**
      * {@inheritDoc}
+     * The emails of the file are first resolved against the directory in batches,
+     * so that the lines do not each need an LDAP search. When the
+     * adminauthenticationwsso.import.pipeline.enabled property is set, the lines are
+     * then processed by a {@link WssoImportPipeline}, unless the file must be checked
+     * before processing or have a fixed number of columns.
+     * Files of at least adminauthenticationwsso.import.streaming.fileSize bytes are
+     * always processed by the pipeline, and their emails are resolved by the pipeline
+     * as the lines are read instead of beforehand, as are their previous imports, so
+     * that the memory used does not depend on the file size.
+     * The lines identical to the previous import of their email are skipped.
+     * Unless the adminauthenticationwsso.import.jobs.enabled property is false, the
+     * import runs as a {@link WssoImportJob} : the request waits for it at most
+     * adminauthenticationwsso.import.jobs.waitDelay milliseconds, after which a
+     * message gives the job to follow.
      */
     @Override
-    protected List<CSVMessageDescriptor> readLineOfCSVFile( String [ ] strLineDataArray, int nLineNumber, Locale locale, String strBaseUrl )
+    public List<CSVMessageDescriptor> readCSVFile( FileItem fileItem, int nColumnNumber, boolean bCheckFileBeforeProcessing,
+            boolean bExitOnError, boolean bSkipFirstLine, Locale locale, String strBaseUrl )
     {
-        if ( nLineNumber == 1)
+        // A job opens the session of its import itself
+        WssoImportSession session = WssoImportSession.getCurrent( );
+        boolean bOwnSession = session == null;
+        
+        if ( bOwnSession )
         {
-            //Open a connection the the LDAP; used for all the import process.
-            _context = WssoLdapUtil.getNewContext( );
+            if ( ( fileItem != null ) && WssoImportJobService.isEnabled( ) )
+            {
+                return submitImportJob( fileItem, nColumnNumber, bCheckFileBeforeProcessing, bExitOnError, bSkipFirstLine, locale, strBaseUrl );
+            }
+            
+            session = WssoImportSession.open( );
         }
         
+        try
+        {
+            List<CSVMessageDescriptor> listMessages;
+            boolean bPipeline = ( fileItem != null ) && ( nColumnNumber <= 0 ) && !bCheckFileBeforeProcessing;
+            boolean bStreaming = bPipeline
+                    && ( fileItem.getSize( ) >= AppPropertiesService.getPropertyLong( PROPERTY_IMPORT_STREAMING_FILE_SIZE, DEFAULT_IMPORT_STREAMING_FILE_SIZE ) );
+            bPipeline = bStreaming || ( bPipeline && AppPropertiesService.getPropertyBoolean( PROPERTY_IMPORT_PIPELINE_ENABLED, false ) );
+            
+            if ( ( fileItem != null ) && !bStreaming )
+            {
+                resolveEmails( session, readEmails( session, fileItem, bSkipFirstLine ) );
+            }
+            
+            if ( bPipeline )
+            {
+                listMessages = readCSVFileInPipeline( session, fileItem, bExitOnError, bSkipFirstLine, bStreaming, locale );
+            }
+            else
+            {
+                listMessages = new ArrayList<CSVMessageDescriptor>( super.readCSVFile( fileItem, nColumnNumber, bCheckFileBeforeProcessing,
+                        bExitOnError, bSkipFirstLine, locale, strBaseUrl ) );
+                
+                try
+                {
+                    session.getGrantBatch( ).flush( );
+                }
+                catch( RuntimeException e )
+                {
+                    AppLogService.error( e.getMessage( ), e );
+                    session.setGrantErrors( );
+                }
+            }
+            
+            if ( session.hasGrantErrors( ) )
+            {
+                // The hashes of these users are not stored, so that their lines are imported again next time
+                listMessages.add( 0, new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_SAVING_GRANTS, locale ) ) );
+            }
+            
+            return listMessages;
+        }
+        finally
+        {
+            if ( bOwnSession )
+            {
+                WssoImportSession.close( );
+            }
+        }
+    }
+    
+    /**
+     * Checks an import file without writing anything : the lines are checked, and
+     * their emails are resolved against the directory by batches of
+     * adminauthenticationwsso.import.ldapBatchSize emails, on
+     * adminauthenticationwsso.import.validation.ldapThreads threads. The messages
+     * are the ones of the import, about the missing status and level and the
+     * emails not found or found several times in the directory.
+     * @param fileItem the import file
+     * @param bSkipFirstLine true if the first line is a header
+     * @param locale the locale
+     * @return the messages, sorted by line
+     */
+    public List<CSVMessageDescriptor> validateCSVFile( FileItem fileItem, boolean bSkipFirstLine, final Locale locale )
+    {
+        int nThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_VALIDATION_LDAP_THREADS, DEFAULT_VALIDATION_LDAP_THREADS ) );
+        int nBatchSize = getLdapBatchSize( );
+        // At most two batches per thread wait, so that the memory used does not depend on the file size
+        final Semaphore semaphoreBatches = new Semaphore( 2 * nThreads );
+        ExecutorService executor = Executors.newFixedThreadPool( nThreads, runnable -> 
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME_VALIDATION_PREFIX + _nValidationThreadCount.incrementAndGet( ) );
+            thread.setDaemon( true );
+            
+            return thread;
+        } );
+        WssoCsvLineParser parser = new WssoCsvLineParser( getCSVSeparator( ), getCSVEscapeCharacter( ) );
+        
+        try ( final WssoImportMessageSink sink = new WssoImportMessageSink( ) )
+        {
+            try ( BufferedReader reader = new BufferedReader( new InputStreamReader( fileItem.getInputStream( ) ) ) )
+            {
+                int nLineNumber = 1;
+                
+                if ( bSkipFirstLine )
+                {
+                    parser.readNext( reader );
+                    nLineNumber++;
+                }
+                
+                List<WssoImportLine> listBatch = new ArrayList<WssoImportLine>( nBatchSize );
+                String [ ] strLineDataArray;
+                
+                while ( ( strLineDataArray = parser.readNext( reader ) ) != null )
+                {
+                    WssoImportLine line = new WssoImportLine( strLineDataArray, nLineNumber++ );
+                    checkLine( line, locale );
+                    
+                    if ( line.hasErrors( ) )
+                    {
+                        sink.addLine( line );
+                        
+                        continue;
+                    }
+                    
+                    listBatch.add( line );
+                    
+                    if ( listBatch.size( ) == nBatchSize )
+                    {
+                        semaphoreBatches.acquire( );
+                        submitValidation( executor, semaphoreBatches, listBatch, sink, locale );
+                        listBatch = new ArrayList<WssoImportLine>( nBatchSize );
+                    }
+                }
+                
+                if ( !listBatch.isEmpty( ) )
+                {
+                    semaphoreBatches.acquire( );
+                    submitValidation( executor, semaphoreBatches, listBatch, sink, locale );
+                }
+                
+                executor.shutdown( );
+                executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( e.getMessage( ), e );
+                sink.addMessage( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_READING_FILE, locale ) ) );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                sink.addMessage( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_READING_FILE, locale ) ) );
+            }
+            finally
+            {
+                executor.shutdownNow( );
+            }
+            
+            List<CSVMessageDescriptor> listMessages = sink.getMessages( locale );
+            Object [ ] args = {
+                    sink.getLineCount( ), sink.getLinesWithoutErrorsCount( )
+            };
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.INFO, 0, I18nService.getLocalizedString( MESSAGE_VALIDATION_SUMMARY, args, locale ) ) );
+            Collections.sort( listMessages );
+            
+            return listMessages;
+        }
+    }
+    
+    /**
+     * Checks a batch of lines against the directory in a thread of the executor
+     * @param executor the executor
+     * @param semaphoreBatches the permits of the waiting batches, one of which is
+     *            released once the batch is checked
+     * @param listBatch the lines
+     * @param sink the sink of the checked lines
+     * @param locale the locale of the messages
+     */
+    private void submitValidation( ExecutorService executor, final Semaphore semaphoreBatches, final List<WssoImportLine> listBatch,
+            final WssoImportMessageSink sink, final Locale locale )
+    {
+        executor.execute( ( ) -> 
+        {
+            try ( WssoDirectorySession directorySession = new WssoDirectorySession( ) )
+            {
+                resolveLines( null, listBatch, directorySession );
+                
+                for ( WssoImportLine line : listBatch )
+                {
+                    getStatus( line, line.getValue( CONSTANT_STATUS_COLUMN ), locale );
+                    getLevel( line, line.getValue( CONSTANT_LEVEL_COLUMN ), locale );
+                    checkGuids( line, locale );
+                    line.setProcessed( );
+                }
+            }
+            catch( RuntimeException e )
+            {
+                AppLogService.error( "Error while checking a batch of " + listBatch.size( ) + " import lines", e );
+                
+                for ( WssoImportLine line : listBatch )
+                {
+                    line.getMessages( ).add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, line.getLineNumber( ), String.valueOf( e.getMessage( ) ) ) );
+                }
+            }
+            finally
+            {
+                for ( WssoImportLine line : listBatch )
+                {
+                    sink.addLine( line );
+                }
+                
+                semaphoreBatches.release( );
+            }
+        } );
+    }
+    
+    /**
+     * Runs an import as a background job, waiting for its end at most
+     * adminauthenticationwsso.import.jobs.waitDelay milliseconds
+     * @param fileItem the import file
+     * @param nColumnNumber the number of columns of the lines, or a negative value
+     * @param bCheckFileBeforeProcessing true to check the whole file first
+     * @param bExitOnError true to stop after the first line in error
+     * @param bSkipFirstLine true if the first line is a header
+     * @param locale the locale
+     * @param strBaseUrl the base URL
+     * @return the messages of the import if it ended in time, otherwise a message giving the job
+     */
+    private List<CSVMessageDescriptor> submitImportJob( FileItem fileItem, int nColumnNumber, boolean bCheckFileBeforeProcessing,
+            boolean bExitOnError, boolean bSkipFirstLine, Locale locale, String strBaseUrl )
+    {
         List<CSVMessageDescriptor> listMessages = new ArrayList<CSVMessageDescriptor>( );
+        WssoImportJob job;
         
-        //We skip the access code (because get from the LDAP, from the email)
-        int nIndex = 1;
+        try
+        {
+            job = WssoImportJobService.getInstance( ).submit( this, fileItem, nColumnNumber, bCheckFileBeforeProcessing, bExitOnError,
+                    bSkipFirstLine, locale, strBaseUrl );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( e.getMessage( ), e );
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_READING_FILE, locale ) ) );
+            
+            return listMessages;
+        }
+        catch( RejectedExecutionException e )
+        {
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_TOO_MANY_IMPORT_JOBS, locale ) ) );
+            
+            return listMessages;
+        }
         
-        String strLastName = strLineDataArray [nIndex++];
-        String strFirstName = strLineDataArray [nIndex++];
-        String strEmail = strLineDataArray [nIndex++];
-
-        boolean bUpdateUser = getUpdateExistingUsers( );
-        int nEmailUserId = AdminUserHome.checkEmailAlreadyInUse( strEmail );
-        bUpdateUser = nEmailUserId > 0;
-        String strStatus = strLineDataArray [nIndex++];
-        int nStatus = 0;
-
-        if ( StringUtils.isNotEmpty( strStatus ) && StringUtils.isNumeric( strStatus ) )
+        List<CSVMessageDescriptor> listJobMessages = job.waitForMessages( WssoImportJobService.getInstance( ).getWaitDelay( ) );
+        
+        if ( listJobMessages != null )
         {
-            nStatus = Integer.parseInt( strStatus );
+            listMessages.addAll( listJobMessages );
         }
         else
         {
-            Object [ ] args = {
-                    strEmail, nStatus
-            };
-            String strMessage = I18nService.getLocalizedString( MESSAGE_NO_STATUS, args, locale );
-            CSVMessageDescriptor message = new CSVMessageDescriptor( CSVMessageLevel.INFO, nLineNumber, strMessage );
-            listMessages.add( message );
+            listMessages.add( new WssoImportJobMessageDescriptor( I18nService.getLocalizedString( MESSAGE_IMPORT_JOB_RUNNING, locale ), job.getId( ) ) );
         }
-
-        String strLocale = strLineDataArray [nIndex++];
-        String strLevelUser = strLineDataArray [nIndex++];
-        int nLevelUser = 3;
-
-        if ( StringUtils.isNotEmpty( strLevelUser ) && StringUtils.isNumeric( strLevelUser ) )
+        
+        return listMessages;
+    }
+    
+    /**
+     * Imports the lines of a file with a {@link WssoImportPipeline}
+     * @param session the import session
+     * @param fileItem the import file
+     * @param bExitOnError true to stop after the first line in error
+     * @param bSkipFirstLine true if the first line is a header
+     * @param bStreaming true to look up the previous imports of the lines as they are read
+     * @param locale the locale
+     * @return the messages of the import, sorted by line
+     */
+    private List<CSVMessageDescriptor> readCSVFileInPipeline( WssoImportSession session, FileItem fileItem, boolean bExitOnError,
+            boolean bSkipFirstLine, boolean bStreaming, Locale locale )
+    {
+        WssoCsvLineParser parser = new WssoCsvLineParser( getCSVSeparator( ), getCSVEscapeCharacter( ) );
+        
+        try ( WssoImportMessageSink sink = new WssoImportMessageSink( ) )
         {
-            nLevelUser = Integer.parseInt( strLevelUser );
+            try ( BufferedReader reader = new BufferedReader( new InputStreamReader( fileItem.getInputStream( ) ) ) )
+            {
+                int nLineNumber = 1;
+                
+                if ( bSkipFirstLine )
+                {
+                    parser.readNext( reader );
+                    nLineNumber++;
+                }
+                
+                new WssoImportPipeline( this, session, locale, sink, bExitOnError, bStreaming ).run( reader, parser, nLineNumber );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( e.getMessage( ), e );
+                sink.addMessage( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_READING_FILE, locale ) ) );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                sink.addMessage( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0, I18nService.getLocalizedString( MESSAGE_ERROR_READING_FILE, locale ) ) );
+            }
+            
+            List<CSVMessageDescriptor> listMessages = sink.getMessages( locale );
+            List<CSVMessageDescriptor> listEndOfProcessMessages = getEndOfProcessMessages( sink.getLineCount( ), sink.getLinesWithoutErrorsCount( ), locale );
+            
+            if ( listEndOfProcessMessages != null )
+            {
+                listMessages.addAll( listEndOfProcessMessages );
+            }
+            
+            Collections.sort( listMessages );
+            
+            return listMessages;
+        }
+    }
+    
+    /**
+     * Reads the emails of the lines of an import file that changed since the previous import
+     * @param session the import session
+     * @param fileItem the import file
+     * @param bSkipFirstLine true if the first line is a header
+     * @return the distinct non blank emails of the changed lines
+     */
+    private Set<String> readEmails( WssoImportSession session, FileItem fileItem, boolean bSkipFirstLine )
+    {
+        Set<String> setEmails = new LinkedHashSet<String>( );
+        WssoCsvLineParser parser = new WssoCsvLineParser( getCSVSeparator( ), getCSVEscapeCharacter( ) );
+        
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( fileItem.getInputStream( ) ) ) )
+        {
+            if ( bSkipFirstLine )
+            {
+                parser.readNext( reader );
+            }
+            
+            String [ ] strLineDataArray;
+            
+            while ( ( strLineDataArray = parser.readNext( reader ) ) != null )
+            {
+                if ( ( strLineDataArray.length > CONSTANT_EMAIL_COLUMN ) && StringUtils.isNotBlank( strLineDataArray [CONSTANT_EMAIL_COLUMN] )
+                        && !session.isUnchanged( new WssoImportLine( strLineDataArray, 0 ) ) )
+                {
+                    setEmails.add( strLineDataArray [CONSTANT_EMAIL_COLUMN] );
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            // The lines will be resolved one by one
+            AppLogService.error( "Unable to read the emails of the import file", e );
+        }
+        
+        return setEmails;
+    }
+    
+    /**
+     * Resolves emails against the directory, with one LDAP search per batch of
+     * adminauthenticationwsso.import.ldapBatchSize emails. The emails of a failed
+     * batch are left to the per line search.
+     * @param session the import session
+     * @param setEmails the emails
+     */
+    private void resolveEmails( WssoImportSession session, Set<String> setEmails )
+    {
+        int nBatchSize = getLdapBatchSize( );
+        List<String> listEmails = new ArrayList<String>( setEmails );
+        
+        for ( int nFrom = 0; nFrom < listEmails.size( ); nFrom += nBatchSize )
+        {
+            final List<String> listBatch = listEmails.subList( nFrom, Math.min( nFrom + nBatchSize, listEmails.size( ) ) );
+            
+            try
+            {
+                Map<String, List<WssoDirectoryUser>> mapUsersByEmail = session.getDirectorySession( ).execute( 
+                        context -> WssoLdapUtil.getWssoUsersFromEmails( context, listBatch, isExactEmailMatch( ) ) );
+                invalidateCachedUsers( mapUsersByEmail );
+                session.addResolvedEmails( mapUsersByEmail );
+            }
+            catch( NamingException e )
+            {
+                AppLogService.error( "Error while resolving a batch of " + listBatch.size( ) + " import emails", e );
+            }
+        }
+        
+        AppLogService.info( "WSSO user import : " + session.getResolvedEmailCount( ) + " of " + listEmails.size( )
+                + " emails resolved in " + ( ( listEmails.size( ) + nBatchSize - 1 ) / nBatchSize ) + " LDAP searches" );
+    }
+    
+    /**
+     * @return the number of emails resolved by a single LDAP search
+     */
+    static int getLdapBatchSize( )
+    {
+        return Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_IMPORT_LDAP_BATCH_SIZE, DEFAULT_IMPORT_LDAP_BATCH_SIZE ) );
+    }
+    
+    /**
+     * @return true if the import finds the users whose email is the one of the
+     *         line, false if it finds those whose email starts with it
+     */
+    static boolean isExactEmailMatch( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_IMPORT_EMAIL_EXACT_MATCH, true );
+    }
+    
+    /**
+     * Finds the WSSO GUIDs of the users whose email is, or starts with, the given
+     * one, from the emails resolved for the import or else with an LDAP search
+     * @param session the import session, or null
+     * @param strEmail the email
+     * @param directorySession the directory session of the search
+     * @return the GUIDs
+     */
+    private List<String> findGuidsByEmail( WssoImportSession session, String strEmail, WssoDirectorySession directorySession )
+    {
+        List<String> listGuids = new ArrayList<String>( );
+        List<WssoDirectoryUser> listUsers = ( session == null ) ? null : session.getResolvedUsers( strEmail );
+        
+        if ( listUsers != null )
+        {
+            return getGuids( listUsers );
+        }
+        
+        List<AdminWssoUser> listDirectoryUsers = isExactEmailMatch( )
+                ? WssoLdapUtil.getWssoUserListFromExactEmail( directorySession, strEmail )
+                : WssoLdapUtil.getWssoUserListFromEmail( directorySession, strEmail );
+        
+        for ( AdminWssoUser user : listDirectoryUsers )
+        {
+            listGuids.add( user.getAccessCode( ) );
+            WssoUserCacheService.getInstance( ).remove( user.getAccessCode( ) );
+        }
+        
+        return listGuids;
+    }
+    
+    /**
+     * Drops from the directory cache the entries just read from the directory,
+     * so that the authentication does not keep using older ones
+     * @param mapUsersByEmail the entries read, by email
+     */
+    private static void invalidateCachedUsers( Map<String, List<WssoDirectoryUser>> mapUsersByEmail )
+    {
+        WssoUserCacheService cache = WssoUserCacheService.getInstance( );
+        
+        for ( List<WssoDirectoryUser> listUsers : mapUsersByEmail.values( ) )
+        {
+            for ( WssoDirectoryUser user : listUsers )
+            {
+                cache.remove( user.getGuid( ) );
+            }
+        }
+    }
+    
+    /**
+     * @param listUsers directory entries
+     * @return the GUIDs of the entries
+     */
+    private static List<String> getGuids( List<WssoDirectoryUser> listUsers )
+    {
+        List<String> listGuids = new ArrayList<String>( listUsers.size( ) );
+        
+        for ( WssoDirectoryUser user : listUsers )
+        {
+            listGuids.add( user.getGuid( ) );
+        }
+        
+        return listGuids;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<CSVMessageDescriptor> readLineOfCSVFile( String [ ] strLineDataArray, int nLineNumber, Locale locale, String strBaseUrl )
+    {
+        WssoImportSession session = WssoImportSession.getCurrent( );
+        WssoImportLine line = new WssoImportLine( strLineDataArray, nLineNumber );
+        
+        if ( skipUnchangedLine( session, line ) )
+        {
+            session.recordDoneLine( line );
+            
+            return line.getMessages( );
+        }
+        
+        if ( session != null )
+        {
+            resolveLine( session, line, session.getDirectorySession( ) );
+            persistLine( line, session.getImportContext( locale ), session.getGrantBatch( ) );
+            session.recordLine( line, session.getGrantBatch( ) );
+            session.recordDoneLine( line );
         }
         else
+        {
+            try ( WssoDirectorySession directorySession = new WssoDirectorySession( ) )
+            {
+                resolveLine( null, line, directorySession );
+            }
+            
+            WssoUserGrantBatch grantBatch = new WssoUserGrantBatch( 1 );
+            persistLine( line, new WssoImportContext( locale ), grantBatch );
+            grantBatch.flush( );
+        }
+        
+        return line.getMessages( );
+    }
+    
+    /**
+     * Checks whether a line is the same as in the previous import, in which case
+     * it is neither resolved nor written
+     * @param session the import session, or null
+     * @param line the line
+     * @return true if the line is skipped
+     */
+    boolean skipUnchangedLine( WssoImportSession session, WssoImportLine line )
+    {
+        if ( ( session != null ) && session.isUnchanged( line ) )
+        {
+            session.recordSkippedLine( );
+            
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * The counts of created, updated and skipped users are added.
+     */
+    @Override
+    protected List<CSVMessageDescriptor> getEndOfProcessMessages( int nNbLineParses, int nNbLinesWithoutErrors, Locale locale )
+    {
+        List<CSVMessageDescriptor> listMessages = new ArrayList<CSVMessageDescriptor>( );
+        List<CSVMessageDescriptor> listEndOfProcessMessages = super.getEndOfProcessMessages( nNbLineParses, nNbLinesWithoutErrors, locale );
+        
+        if ( listEndOfProcessMessages != null )
+        {
+            listMessages.addAll( listEndOfProcessMessages );
+        }
+        
+        WssoImportSession session = WssoImportSession.getCurrent( );
+        
+        if ( session != null )
         {
             Object [ ] args = {
-                    strEmail, nLevelUser
+                    session.getCreatedCount( ), session.getUpdatedCount( ), session.getSkippedCount( )
             };
-            String strMessage = I18nService.getLocalizedString( MESSAGE_NO_LEVEL, args, locale );
-            CSVMessageDescriptor message = new CSVMessageDescriptor( CSVMessageLevel.INFO, nLineNumber, strMessage );
-            listMessages.add( message );
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.INFO, 0, I18nService.getLocalizedString( MESSAGE_IMPORT_SUMMARY, args, locale ) ) );
+        }
+        
+        return listMessages;
+    }
+    
+    /**
+     * Checks a line before it is processed, for the pipelined import
+     * @param line the line
+     * @param locale the locale
+     */
+    void checkLine( WssoImportLine line, Locale locale )
+    {
+        List<CSVMessageDescriptor> listErrors = checkLineOfCSVFile( line.getData( ), line.getLineNumber( ), locale );
+        
+        if ( listErrors != null )
+        {
+            line.getMessages( ).addAll( listErrors );
         }
+    }
+    
+    /**
+     * Directory stage of a line : finds the WSSO GUIDs matching its email
+     * @param session the import session, or null
+     * @param line the line
+     * @param directorySession the directory session of the searches of the emails not resolved by the session
+     */
+    void resolveLine( WssoImportSession session, WssoImportLine line, WssoDirectorySession directorySession )
+    {
+        line.setGuids( findGuidsByEmail( session, line.getValue( CONSTANT_EMAIL_COLUMN ), directorySession ) );
+    }
+    
+    /**
+     * Directory stage of several lines : the emails not resolved by the session are
+     * searched in a single LDAP request. The lines of a failed request are
+     * resolved one by one.
+     * @param session the import session, or null
+     * @param listLines the lines
+     * @param directorySession the directory session of the searches
+     */
+    void resolveLines( WssoImportSession session, List<WssoImportLine> listLines, WssoDirectorySession directorySession )
+    {
+        Set<String> setEmails = new LinkedHashSet<String>( );
+        
+        for ( WssoImportLine line : listLines )
+        {
+            String strEmail = line.getValue( CONSTANT_EMAIL_COLUMN );
+            
+            if ( StringUtils.isNotBlank( strEmail ) && ( ( session == null ) || ( session.getResolvedUsers( strEmail ) == null ) ) )
+            {
+                setEmails.add( strEmail );
+            }
+        }
+        
+        Map<String, List<WssoDirectoryUser>> mapUsersByEmail = Collections.emptyMap( );
+        
+        if ( setEmails.size( ) > 1 )
+        {
+            try
+            {
+                mapUsersByEmail = directorySession.execute( context -> WssoLdapUtil.getWssoUsersFromEmails( context, setEmails, isExactEmailMatch( ) ) );
+                invalidateCachedUsers( mapUsersByEmail );
+            }
+            catch( NamingException e )
+            {
+                AppLogService.error( "Error while resolving a batch of " + setEmails.size( ) + " import emails", e );
+            }
+        }
+        
+        for ( WssoImportLine line : listLines )
+        {
+            String strEmail = line.getValue( CONSTANT_EMAIL_COLUMN );
+            List<WssoDirectoryUser> listUsers = ( strEmail == null ) ? null : mapUsersByEmail.get( strEmail.toLowerCase( Locale.ROOT ) );
+            
+            if ( listUsers != null )
+            {
+                line.setGuids( getGuids( listUsers ) );
+            }
+            else
+            {
+                resolveLine( session, line, directorySession );
+            }
+        }
+    }
+    
+    /**
+     * Database stage of a line : creates or updates the user, its rights, roles,
+     * workgroups and attributes
+     * @param line the line, already resolved
+     * @param context the lookups shared by the lines of the import
+     * @param grantBatch the batch receiving the rights, roles and workgroups of the user
+     */
+    void persistLine( WssoImportLine line, WssoImportContext context, WssoUserGrantBatch grantBatch )
+    {
+        Locale locale = context.getLocale( );
+        String [ ] strLineDataArray = line.getData( );
+        int nLineNumber = line.getLineNumber( );
+        List<CSVMessageDescriptor> listMessages = line.getMessages( );
+        
+        //We skip the access code (because get from the LDAP, from the email)
+        int nIndex = 1;
+        
+        String strLastName = strLineDataArray [nIndex++];
+        String strFirstName = strLineDataArray [nIndex++];
+        String strEmail = strLineDataArray [nIndex++];
+
+        boolean bUpdateUser = getUpdateExistingUsers( );
+        int nEmailUserId = AdminUserHome.checkEmailAlreadyInUse( strEmail );
+        bUpdateUser = nEmailUserId > 0;
+        int nStatus = getStatus( line, strLineDataArray [nIndex++], locale );
+        String strLocale = strLineDataArray [nIndex++];
+        int nLevelUser = getLevel( line, strLineDataArray [nIndex++], locale );
 
         // We ignore the reset password attribute because we set it to true anyway.
         // String strResetPassword = strLineDataArray[nIndex++];
@@ -172,12 +824,11 @@ public class WssoAdminUserImportService extends ImportAdminUserService
 
         if ( StringUtils.isNotBlank( strDateLastLogin ) )
         {
-            DateFormat dateFormat = new SimpleDateFormat( );
             Date dateParsed;
 
             try
             {
-                dateParsed = dateFormat.parse( strDateLastLogin );
+                dateParsed = context.getDateFormat( ).parse( strDateLastLogin );
             }
             catch( ParseException e )
             {
@@ -202,30 +853,11 @@ public class WssoAdminUserImportService extends ImportAdminUserService
             user = new LuteceDefaultAdminUser( );
         }
         
-        List<AdminWssoUser> userList = WssoLdapUtil.getWssoUserListFromEmail( _context, strEmail );
+        List<String> userList = line.getGuids( );
         
-        if ( userList.isEmpty( ) )
+        if ( checkGuids( line, locale ) )
         {
-            Object [ ] args = {
-                   strEmail
-            };
-            String strErrorMessage = I18nService.getLocalizedString( MESSAGE_ERROR_USER_EMAIL_NOT_FOUND, args, locale );
-            listMessages.add( new CSVMessageDescriptor(CSVMessageLevel.ERROR, nLineNumber , strErrorMessage ) );
-            AppLogService.error( "Ligne : " + nLineNumber + "  : " + strEmail + " non trouvé dans le LDAP.");
-        }
-        else if ( userList.size( ) > 1 )
-        {
-            Object [ ] args = {
-                   strEmail
-            };
-            String strErrorMessage = I18nService.getLocalizedString( MESSAGE_ERROR_SEVERAL_SAME_EMAIL, args, locale );
-            listMessages.add( new CSVMessageDescriptor(CSVMessageLevel.ERROR, nLineNumber , strErrorMessage ) );
-            AppLogService.error( "Ligne : " + nLineNumber + "  : " + strEmail + " trouvé plusieurs fois dans le LDAP.");
-        }
-        else
-        {
-            AdminWssoUser adminWssoUser = (AdminWssoUser)userList.toArray( )[0];
-            user.setAccessCode( adminWssoUser.getAccessCode( ) );
+            user.setAccessCode( userList.get( 0 ) );
             user.setLastName( strLastName );
             user.setFirstName( strFirstName );
             user.setEmail( strEmail );
@@ -238,6 +870,7 @@ public class WssoAdminUserImportService extends ImportAdminUserService
             {
                 // We update the user
                 AdminUserHome.update( user );
+                line.setOutcome( WssoImportLine.OUTCOME_UPDATED );
             }
             else
             {
@@ -247,23 +880,21 @@ public class WssoAdminUserImportService extends ImportAdminUserService
                 user.setAccountMaxValidDate( accountMaxValidDate );
                 user.setDateLastLogin( dateLastLogin );
                 AdminUserHome.create( user );
+                line.setOutcome( WssoImportLine.OUTCOME_CREATED );
             }
 
-            // We remove any previous right, roles, workgroup and attributes of the user
-            AdminUserHome.removeAllRightsForUser( user.getUserId( ) );
-            AdminUserHome.removeAllRolesForUser( user.getUserId( ) );
-
+            // We remove any previous attributes of the user, the rights and roles are replaced below
             // We remove the user fields from id user
             AdminUserFieldHome.removeUserFieldsFromIdUser( user.getUserId( ) );
             
             // We notify the remove user field listener (such as field profile)
-            for ( AdminUserFieldListenerService adminUserFieldListenerService : SpringContextService.getBeansOfType( AdminUserFieldListenerService.class ) )
+            for ( AdminUserFieldListenerService adminUserFieldListenerService : context.getFieldListeners( ) )
             {
                 adminUserFieldListenerService.doRemoveUserFields( user, locale );
             }
 
             // We get every attribute, role, right and workgroup of the user
-            Map<Integer, List<String>> mapAttributesValues = new HashMap<Integer, List<String>>( );
+            Map<Integer, List<String>> mapAttributesValues = new LinkedHashMap<Integer, List<String>>( );
             List<String> listAdminRights = new ArrayList<String>( );
             List<String> listAdminRoles = new ArrayList<String>( );
             List<String> listAdminWorkgroups = new ArrayList<String>( );
@@ -314,39 +945,26 @@ public class WssoAdminUserImportService extends ImportAdminUserService
                 nIndex++;
             }
 
-            // We create rights
-            for ( String strRight : listAdminRights )
-            {
-                AdminUserHome.createRightForUser( user.getUserId( ), strRight );
-            }
-
-            // We create roles
-            for ( String strRole : listAdminRoles )
-            {
-                AdminUserHome.createRoleForUser( user.getUserId( ), strRole );
-            }
+            // We replace the rights and roles and add the workgroups, writing only what changed
+            WssoUserGrants grants = new WssoUserGrants( user.getUserId( ) );
+            grants.getRights( ).addAll( listAdminRights );
+            grants.getRoles( ).addAll( listAdminRoles );
+            grants.getWorkgroups( ).addAll( listAdminWorkgroups );
+            grantBatch.add( grants );
 
-            // We create workgroups
-            for ( String strWorkgoup : listAdminWorkgroups )
+            // We save the attributes found, in the order of the file
+            for ( Map.Entry<Integer, List<String>> entryValues : mapAttributesValues.entrySet( ) )
             {
-                AdminWorkgroupHome.addUserForWorkgroup( user, strWorkgoup );
-            }
-
-            List<IAttribute> listAttributes = _attributeService.getAllAttributesWithoutFields( locale );
-            Plugin pluginCore = PluginService.getCore( );
+                ISimpleValuesAttributes attribute = context.getSimpleValuesAttribute( entryValues.getKey( ) );
 
-            // We save the attributes found
-            for ( IAttribute attribute : listAttributes )
-            {
-                if ( attribute instanceof ISimpleValuesAttributes )
+                if ( attribute != null )
                 {
-                    List<String> listValues = mapAttributesValues.get( attribute.getIdAttribute( ) );
+                    List<String> listValues = entryValues.getValue( );
 
                     if ( ( listValues != null ) && ( listValues.size( ) > 0 ) )
                     {
                         int nIdField = 0;
-                        boolean bCoreAttribute = ( attribute.getPlugin( ) == null )
-                                || StringUtils.equals( pluginCore.getName( ), attribute.getPlugin( ).getName( ) );
+                        boolean bCoreAttribute = !context.isPluginAttribute( entryValues.getKey( ) );
 
                         for ( String strValue : listValues )
                         {
@@ -378,7 +996,7 @@ public class WssoAdminUserImportService extends ImportAdminUserService
 
                             try
                             {
-                                List<AdminUserField> listUserFields = ( (ISimpleValuesAttributes) attribute ).getUserFieldsData( strValues, user );
+                                List<AdminUserField> listUserFields = attribute.getUserFieldsData( strValues, user );
 
                                 for ( AdminUserField userField : listUserFields )
                                 {
@@ -391,8 +1009,7 @@ public class WssoAdminUserImportService extends ImportAdminUserService
 
                                 if ( !bCoreAttribute )
                                 {
-                                    for ( AdminUserFieldListenerService adminUserFieldListenerService : SpringContextService
-                                            .getBeansOfType( AdminUserFieldListenerService.class ) )
+                                    for ( AdminUserFieldListenerService adminUserFieldListenerService : context.getFieldListeners( ) )
                                     {
                                         adminUserFieldListenerService.doCreateUserFields( user, listUserFields, locale );
                                     }
@@ -411,8 +1028,101 @@ public class WssoAdminUserImportService extends ImportAdminUserService
                 }
             }
         }
+    }
+    
+    /**
+     * Reads the status of a line, 0 if it is not given
+     * @param line the line
+     * @param strStatus the status column
+     * @param locale the locale of the messages
+     * @return the status
+     */
+    private static int getStatus( WssoImportLine line, String strStatus, Locale locale )
+    {
+        int nStatus = 0;
 
-        return listMessages;
+        if ( StringUtils.isNotEmpty( strStatus ) && StringUtils.isNumeric( strStatus ) )
+        {
+            nStatus = Integer.parseInt( strStatus );
+        }
+        else
+        {
+            Object [ ] args = {
+                    line.getValue( CONSTANT_EMAIL_COLUMN ), nStatus
+            };
+            String strMessage = I18nService.getLocalizedString( MESSAGE_NO_STATUS, args, locale );
+            CSVMessageDescriptor message = new CSVMessageDescriptor( CSVMessageLevel.INFO, line.getLineNumber( ), strMessage );
+            line.getMessages( ).add( message );
+        }
+        
+        return nStatus;
+    }
+    
+    /**
+     * Reads the level of a line, 3 if it is not given
+     * @param line the line
+     * @param strLevelUser the level column
+     * @param locale the locale of the messages
+     * @return the level
+     */
+    private static int getLevel( WssoImportLine line, String strLevelUser, Locale locale )
+    {
+        int nLevelUser = 3;
+
+        if ( StringUtils.isNotEmpty( strLevelUser ) && StringUtils.isNumeric( strLevelUser ) )
+        {
+            nLevelUser = Integer.parseInt( strLevelUser );
+        }
+        else
+        {
+            Object [ ] args = {
+                    line.getValue( CONSTANT_EMAIL_COLUMN ), nLevelUser
+            };
+            String strMessage = I18nService.getLocalizedString( MESSAGE_NO_LEVEL, args, locale );
+            CSVMessageDescriptor message = new CSVMessageDescriptor( CSVMessageLevel.INFO, line.getLineNumber( ), strMessage );
+            line.getMessages( ).add( message );
+        }
+        
+        return nLevelUser;
+    }
+    
+    /**
+     * Checks that the email of a resolved line matches exactly one directory user
+     * @param line the line
+     * @param locale the locale of the messages
+     * @return true if the email matches one user, false if it matches none or several
+     */
+    private static boolean checkGuids( WssoImportLine line, Locale locale )
+    {
+        String strEmail = line.getValue( CONSTANT_EMAIL_COLUMN );
+        int nLineNumber = line.getLineNumber( );
+        List<String> userList = line.getGuids( );
+        
+        if ( userList.isEmpty( ) )
+        {
+            Object [ ] args = {
+                   strEmail
+            };
+            String strErrorMessage = I18nService.getLocalizedString( MESSAGE_ERROR_USER_EMAIL_NOT_FOUND, args, locale );
+            line.getMessages( ).add( new CSVMessageDescriptor(CSVMessageLevel.ERROR, nLineNumber , strErrorMessage ) );
+            AppLogService.error( "Ligne : " + nLineNumber + "  : " + strEmail + " non trouvé dans le LDAP.");
+            
+            return false;
+        }
+        
+        if ( userList.size( ) > 1 )
+        {
+            Object [ ] args = {
+                   strEmail
+            };
+            String strErrorMessage = I18nService.getLocalizedString( MESSAGE_ERROR_SEVERAL_SAME_EMAIL, args, locale );
+            line.getMessages( ).add( new CSVMessageDescriptor(CSVMessageLevel.ERROR, nLineNumber , strErrorMessage ) );
+            AppLogService.error( "Ligne : " + nLineNumber + "  : " + strEmail + " trouvé plusieurs fois dans le LDAP.");
+            
+            return false;
+        }
+        
+        return true;
     }
     
     /**
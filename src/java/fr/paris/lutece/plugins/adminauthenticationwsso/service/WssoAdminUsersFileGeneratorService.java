@@ -34,24 +34,29 @@
 package fr.paris.lutece.plugins.adminauthenticationwsso.service;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
+import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 
-import fr.paris.lutece.portal.business.user.AdminUser;
-import fr.paris.lutece.portal.business.user.AdminUserFilter;
-import fr.paris.lutece.portal.business.user.AdminUserHome;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.IWssoAccessCodeHandler;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoAdminUserExportHome;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoAtomicFile;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPathService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import fr.paris.lutece.util.xml.XmlUtil;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 
 /**
@@ -63,6 +68,15 @@ public class WssoAdminUsersFileGeneratorService
     /////////////////////////////////////////////////////////////////////////////////
     // Constants
     private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String XML_VERSION = "1.0";
+    private static final String XML_NEW_LINE = "\r\n";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String DIGEST_FILE_EXTENSION = ".digest";
+    private static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+    private static final String SEQUENCE_FILE_EXTENSION = ".sequence";
+    private static final String DELTA_FILE_SUFFIX = "_delta_{0}";
+    private static final String TEMP_FILE_PREFIX = ".";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
 
     /////////////////////////////////////////////////////////////////////////////////
     // Properties
@@ -79,8 +93,19 @@ public class WssoAdminUsersFileGeneratorService
     private static final String PROPERTY_XMLFILEFORMAT_ATTR_APP_RESPONSABLE_MAIL = "adminauthenticationwsso.wssofileformat.tag_mail";
     private static final String PROPERTY_XMLFILEFORMAT_ALLOWED_USER = "adminauthenticationwsso.wssofileformat.tag_allowedUser";
     private static final String PROPERTY_XMLFILEFORMAT_ATTR_ALLOWED_USER_WSSO_GUID = "adminauthenticationwsso.wssofileformat.tag_wssoGUID";
+    private static final String PROPERTY_XMLFILEFORMAT_ATTR_APPLICATION_WSSO_SEQUENCE = "adminauthenticationwsso.wssofileformat.tag_sequence";
+    private static final String PROPERTY_XMLFILEFORMAT_ADDED_USER = "adminauthenticationwsso.wssofileformat.tag_addedUser";
+    private static final String PROPERTY_XMLFILEFORMAT_REMOVED_USER = "adminauthenticationwsso.wssofileformat.tag_removedUser";
     private static final String LOG_MESSAGE_OK = "\nWssoAdminUserFileGeneratorService : Update OK for file ";
     private static final String LOG_MESSAGE_NOK = "\nWssoAdminUserFileGeneratorService : Error when updating file ";
+    private static final String LOG_MESSAGE_UPDATED = " : updated / {0} users";
+    private static final String LOG_MESSAGE_UNCHANGED = "\nWssoAdminUserFileGeneratorService : unchanged / {0} users for file ";
+    private static final String LOG_MESSAGE_DELTA = "\nWssoAdminUserFileGeneratorService : Delta file {0} : {1} added / {2} removed users";
+    private static final String PROPERTY_EXPORT_SKIP_UNCHANGED = "adminauthenticationwsso.export.skipUnchanged";
+    private static final String PROPERTY_EXPORT_DELTA_ENABLED = "adminauthenticationwsso.export.delta.enabled";
+    private static final String PROPERTY_EXPORT_DELTA_FILE_NAME = "adminauthenticationwsso.export.delta.fileName";
+    private static final String PROPERTY_EXPORT_GENERATIONS = "adminauthenticationwsso.export.generations";
+    private static final String PROPERTY_EXPORT_CHECKSUM = "adminauthenticationwsso.export.checksum";
     
     //Regex
     private static final String REGEX_WSSO_ID = AppPropertiesService.getProperty( "adminauthenticationwsso.wssoid.regex" );
@@ -101,79 +126,312 @@ public class WssoAdminUsersFileGeneratorService
      */
     public static String getXml( Plugin plugin )
     {
-        StringBuffer strXml = new StringBuffer(  );
-        Date date = new Date(  );
-        HashMap attrList = new HashMap(  );
-        // get only active users to export to wsso
-        AdminUserFilter auFilter = new AdminUserFilter();
-		auFilter.init();
-		auFilter.setStatus(AdminUser.ACTIVE_CODE);
-		Collection<AdminUser> userList = AdminUserHome.findUserByFilter(auFilter);
-		//AdminAuthentication auth = new AdminWssoAuthentication(  );
-        //Collection<AdminWssoUser> userList = auth.getUserList( "", "", "" );
+        StringWriter writer = new StringWriter(  );
+
+        try
+        {
+            writeXml( writer );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( e.getMessage(  ), e );
+        }
+
+        return writer.toString(  );
+    }
+
+    /**
+     * Writes the XML content of the admin user list. The access codes of the
+     * active users are read from the database and written one at a time, so
+     * that the list is never held in memory.
+     *
+     * @param writer the writer, neither closed nor flushed
+     * @throws IOException if the content cannot be read or written
+     */
+    public static void writeXml( Writer writer ) throws IOException
+    {
+        writeXml( writer, null );
+    }
+
+    /**
+     * Writes the XML content of the admin user list
+     *
+     * @param writer the writer, neither closed nor flushed
+     * @param listener receives the exported GUIDs once written, or null
+     * @throws IOException if the content cannot be read or written
+     */
+    private static void writeXml( Writer writer, final IWssoAccessCodeHandler listener )
+        throws IOException
+    {
+        try
+        {
+            final XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance(  ).createXMLStreamWriter( writer );
+            writeHeader( xmlWriter, null );
+
+            //Add list of allowedUser
+            final String strAllowedUser = AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ALLOWED_USER );
+
+            findExportedAccessCodes( strAccessCode -> 
+            {
+                writeUser( xmlWriter, strAllowedUser, strAccessCode );
+
+                if ( listener != null )
+                {
+                    listener.handleAccessCode( strAccessCode );
+                }
+            } );
+
+            writeFooter( xmlWriter );
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    /**
+     * Writes the delta file content : the GUIDs added and removed between two
+     * snapshots of the export, in GUID order
+     *
+     * @param writer the writer, neither closed nor flushed
+     * @param filePrevious the snapshot of the previous export
+     * @param fileCurrent the snapshot of the current export
+     * @param strSequence the sequence number of the delta
+     * @param nUserCounts receives the numbers of added and removed users
+     * @throws IOException if the content cannot be read or written
+     */
+    private static void writeDeltaXml( Writer writer, File filePrevious, File fileCurrent, String strSequence,
+        final int[] nUserCounts ) throws IOException
+    {
+        try
+        {
+            final XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance(  ).createXMLStreamWriter( writer );
+            writeHeader( xmlWriter, strSequence );
+
+            final String strAddedUser = AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ADDED_USER );
+            final String strRemovedUser = AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_REMOVED_USER );
+
+            WssoExportSnapshot.diff( filePrevious, fileCurrent, strAccessCode -> 
+            {
+                writeUser( xmlWriter, strAddedUser, strAccessCode );
+                nUserCounts[0]++;
+            }, strAccessCode -> 
+            {
+                writeUser( xmlWriter, strRemovedUser, strAccessCode );
+                nUserCounts[1]++;
+            } );
+
+            writeFooter( xmlWriter );
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    /**
+     * Writes the beginning of the document, up to the application responsable
+     *
+     * @param xmlWriter the XML writer
+     * @param strSequence the sequence number of a delta file, or null
+     * @throws XMLStreamException if the content cannot be written
+     */
+    private static void writeHeader( XMLStreamWriter xmlWriter, String strSequence )
+        throws XMLStreamException
+    {
+        xmlWriter.writeStartDocument( StandardCharsets.UTF_8.name(  ), XML_VERSION );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
 
         //Open AutorisationWsso
-        XmlUtil.beginElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_AUTORISATION_WSSO ) );
+        xmlWriter.writeStartElement( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_AUTORISATION_WSSO ) );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
 
         //Open ApplicationWsso
-        attrList.put( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_APPLICATION_WSSO_APP_ID ),
+        xmlWriter.writeStartElement( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_APPLICATION_WSSO ) );
+        xmlWriter.writeAttribute( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_APPLICATION_WSSO_APP_ID ),
             AppPropertiesService.getProperty( PROPERTY_APP_ID ) );
-        XmlUtil.beginElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_APPLICATION_WSSO ),
-            attrList );
-        attrList.clear(  );
+
+        if ( strSequence != null )
+        {
+            xmlWriter.writeAttribute( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_APPLICATION_WSSO_SEQUENCE ),
+                strSequence );
+        }
+
+        xmlWriter.writeCharacters( XML_NEW_LINE );
 
         //Add transmissionDate
         DateFormat dateFormat = new SimpleDateFormat( DATE_FORMAT );
-        attrList.put( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_TRANSMISSION_DATE_DATE ),
-            dateFormat.format( date ) );
-        XmlUtil.addEmptyElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_TRANSMISSION_DATE ),
-            attrList );
-        attrList.clear(  );
+        xmlWriter.writeEmptyElement( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_TRANSMISSION_DATE ) );
+        xmlWriter.writeAttribute( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_TRANSMISSION_DATE_DATE ),
+            dateFormat.format( new Date(  ) ) );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
 
         //Add responsable
-        attrList.put( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_APP_RESPONSABLE_MAIL ),
+        xmlWriter.writeEmptyElement( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_APP_RESPONSABLE ) );
+        xmlWriter.writeAttribute( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_APP_RESPONSABLE_MAIL ),
             AppPropertiesService.getProperty( PROPERTY_APP_RESPONSABLE ) );
-        XmlUtil.addEmptyElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_APP_RESPONSABLE ),
-            attrList );
-        attrList.clear(  );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
+    }
 
-        //Add list of allowedUser
-        Pattern pattern = Pattern.compile( REGEX_WSSO_ID );
-        for ( AdminUser user : userList )
+    /**
+     * Writes a user element
+     *
+     * @param xmlWriter the XML writer
+     * @param strElement the element name
+     * @param strAccessCode the WSSO GUID of the user
+     * @throws IOException if the content cannot be written
+     */
+    private static void writeUser( XMLStreamWriter xmlWriter, String strElement, String strAccessCode )
+        throws IOException
+    {
+        try
         {
-            Matcher matcher = pattern.matcher( user.getAccessCode( ) );
-            if ( matcher.matches( ) )
-            {
-                attrList.put( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_ALLOWED_USER_WSSO_GUID ),
-                user.getAccessCode(  ) );
-                XmlUtil.addEmptyElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ALLOWED_USER ),
-                attrList );
-                attrList.clear(  );
-            }
+            xmlWriter.writeEmptyElement( strElement );
+            xmlWriter.writeAttribute( AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_ATTR_ALLOWED_USER_WSSO_GUID ),
+                strAccessCode );
+            xmlWriter.writeCharacters( XML_NEW_LINE );
         }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( e );
+        }
+    }
 
+    /**
+     * Writes the end of the document
+     *
+     * @param xmlWriter the XML writer
+     * @throws XMLStreamException if the content cannot be written
+     */
+    private static void writeFooter( XMLStreamWriter xmlWriter )
+        throws XMLStreamException
+    {
         //Close applicationWsso
-        XmlUtil.endElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_APPLICATION_WSSO ) );
+        xmlWriter.writeEndElement(  );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
 
         //Close autorisationWsso
-        XmlUtil.endElement( strXml, AppPropertiesService.getProperty( PROPERTY_XMLFILEFORMAT_AUTORISATION_WSSO ) );
+        xmlWriter.writeEndElement(  );
+        xmlWriter.writeCharacters( XML_NEW_LINE );
+
+        xmlWriter.writeEndDocument(  );
+        xmlWriter.flush(  );
+    }
+
+    /**
+     * Reads the access codes of the active users that are WSSO GUIDs, in access
+     * code order
+     *
+     * @param handler the handler of the access codes
+     * @throws IOException if the handler fails
+     */
+    private static void findExportedAccessCodes( final IWssoAccessCodeHandler handler )
+        throws IOException
+    {
+        final Pattern pattern = Pattern.compile( REGEX_WSSO_ID );
 
-        return strXml.toString(  );
+        WssoAdminUserExportHome.findActiveAccessCodes( strAccessCode -> 
+        {
+            if ( ( strAccessCode != null ) && pattern.matcher( strAccessCode ).matches(  ) )
+            {
+                handler.handleAccessCode( strAccessCode );
+            }
+        } );
     }
 
     /**
-     * Create or update the XML file with the getXml content
+     * Creates the digest of the exported content, that is the settings of the
+     * file followed by the exported GUIDs, but not the transmission date. The
+     * returned digest is fed with the settings, the GUIDs being added as they
+     * are written.
+     *
+     * @return the digest
+     * @throws IOException if the digest algorithm is not available
+     */
+    private static MessageDigest createExportDigest(  ) throws IOException
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( e );
+        }
+
+        String[] settings = 
+            {
+                PROPERTY_APP_ID, PROPERTY_APP_RESPONSABLE, PROPERTY_XMLFILEFORMAT_AUTORISATION_WSSO,
+                PROPERTY_XMLFILEFORMAT_APPLICATION_WSSO, PROPERTY_XMLFILEFORMAT_ATTR_APPLICATION_WSSO_APP_ID,
+                PROPERTY_XMLFILEFORMAT_TRANSMISSION_DATE, PROPERTY_XMLFILEFORMAT_ATTR_TRANSMISSION_DATE_DATE,
+                PROPERTY_XMLFILEFORMAT_APP_RESPONSABLE, PROPERTY_XMLFILEFORMAT_ATTR_APP_RESPONSABLE_MAIL,
+                PROPERTY_XMLFILEFORMAT_ALLOWED_USER, PROPERTY_XMLFILEFORMAT_ATTR_ALLOWED_USER_WSSO_GUID
+            };
+
+        for ( String strSetting : settings )
+        {
+            updateDigest( digest, AppPropertiesService.getProperty( strSetting ) );
+        }
+
+        return digest;
+    }
+
+    /**
+     * Completes a digest
+     *
+     * @param digest the digest
+     * @return the digest value, in hexadecimal
+     */
+    private static String toHex( MessageDigest digest )
+    {
+        StringBuilder sbDigest = new StringBuilder(  );
+
+        for ( byte b : digest.digest(  ) )
+        {
+            sbDigest.append( String.format( "%02x", b ) );
+        }
+
+        return sbDigest.toString(  );
+    }
+
+    /**
+     * Adds a value to a digest, followed by a line feed
+     *
+     * @param digest the digest
+     * @param strValue the value, null being handled as an empty value
+     */
+    private static void updateDigest( MessageDigest digest, String strValue )
+    {
+        if ( strValue != null )
+        {
+            digest.update( strValue.getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        digest.update( (byte) '\n' );
+    }
+
+    /**
+     * Create or update the XML file with the getXml content. The file is left
+     * untouched, transmission date included, when neither the exported GUIDs
+     * nor the settings of the file changed since it was written : the digest of
+     * the GUIDs is computed while the new content is written, which is then
+     * published only if the digest differs from the one of the file.
+     * When the delta export is enabled, a delta file listing the GUIDs added and
+     * removed since the previous export is written next to the file.
+     * The files are published atomically : a reader never sees them missing or partial.
      *
      * @param plugin the plugin
      */           
     public static String createXmlFile( Plugin plugin )
     {
-        FileWriter fileXmlWriter = null;
-
         //String buffer for building the response page
         StringBuffer sbLogs = new StringBuffer(  );
         String strFileName = AppPropertiesService.getProperty( PROPERTY_XML_FILE_NAME );
         String strFolderPath = AppPathService.getPath( PROPERTY_XML_STORAGE_FOLDER_PATH, "" );
+        boolean bDelta = AppPropertiesService.getPropertyBoolean( PROPERTY_EXPORT_DELTA_ENABLED, false );
+        File fileSnapshotTemp = null;
 
         try
         {
@@ -184,19 +442,63 @@ public class WssoAdminUsersFileGeneratorService
                 fileFolder.mkdir(  );
             }
 
-            // Creates a temporary XML file
             File fileXml = new File( strFolderPath + strFileName );
-            File fileXmlDirectory = new File( strFolderPath );
-            File fileXmlTemp = File.createTempFile( "tmp", null, fileXmlDirectory );
-            fileXmlWriter = new FileWriter( fileXmlTemp );
-            fileXmlWriter.write( getXml( plugin ) );
-            fileXmlWriter.flush(  );
-            fileXmlWriter.close(  );
-
-            // Deletes the file if the file exists and renames the temporary file into the file
-            removeXmlFile(  );
-            fileXmlTemp.renameTo( fileXml );
-            sbLogs.append( LOG_MESSAGE_OK + strFileName );
+            File fileDigest = new File( strFolderPath + strFileName + DIGEST_FILE_EXTENSION );
+            File fileSnapshot = new File( strFolderPath + strFileName + SNAPSHOT_FILE_EXTENSION );
+            String strPreviousDigest = null;
+
+            if ( AppPropertiesService.getPropertyBoolean( PROPERTY_EXPORT_SKIP_UNCHANGED, true ) && fileXml.exists(  ) &&
+                    fileDigest.exists(  ) && ( !bDelta || fileSnapshot.exists(  ) ) )
+            {
+                strPreviousDigest = new String( Files.readAllBytes( fileDigest.toPath(  ) ), StandardCharsets.UTF_8 ).trim(  );
+            }
+
+            // The snapshot of the exported GUIDs is written along with the file
+            if ( bDelta )
+            {
+                fileSnapshotTemp = File.createTempFile( TEMP_FILE_PREFIX + strFileName + SNAPSHOT_FILE_EXTENSION,
+                        TEMP_FILE_SUFFIX, new File( strFolderPath ) );
+            }
+
+            final MessageDigest digest = createExportDigest(  );
+            final int[] nUserCount = new int[1];
+            String strDigest;
+
+            // The file is written to a temporary file, then replaced in one step, or
+            // abandoned if unchanged
+            try ( WssoAtomicFile atomicFileXml = new WssoAtomicFile( fileXml );
+                    WssoExportSnapshot snapshot = bDelta ? new WssoExportSnapshot( fileSnapshotTemp ) : null )
+            {
+                writeXml( atomicFileXml.getWriter(  ), strAccessCode -> 
+                {
+                    updateDigest( digest, strAccessCode );
+                    nUserCount[0]++;
+
+                    if ( snapshot != null )
+                    {
+                        snapshot.handleAccessCode( strAccessCode );
+                    }
+                } );
+                strDigest = toHex( digest );
+
+                if ( strDigest.equals( strPreviousDigest ) )
+                {
+                    String strLog = MessageFormat.format( LOG_MESSAGE_UNCHANGED, Integer.toString( nUserCount[0] ) ) + strFileName;
+                    AppLogService.info( strLog.trim(  ) );
+                    sbLogs.append( strLog );
+
+                    return sbLogs.toString(  );
+                }
+
+                atomicFileXml.commit( getGenerationCount(  ), isChecksumEnabled(  ) );
+            }
+
+            String strDeltaLogs = bDelta ? createDeltaFile( strFolderPath, strFileName, fileSnapshot, fileSnapshotTemp ) : "";
+
+            // The digest is written last, so that a failed delta is written again at the next run
+            WssoAtomicFile.write( fileDigest, strDigest );
+            sbLogs.append( LOG_MESSAGE_OK + strFileName + MessageFormat.format( LOG_MESSAGE_UPDATED, Integer.toString( nUserCount[0] ) ) );
+            sbLogs.append( strDeltaLogs );
         }
         catch ( IOException e )
         {
@@ -208,10 +510,105 @@ public class WssoAdminUsersFileGeneratorService
             AppLogService.error( e.getMessage(  ), e );
             sbLogs.append( LOG_MESSAGE_NOK + strFileName );
         }
+        finally
+        {
+            if ( fileSnapshotTemp != null )
+            {
+                fileSnapshotTemp.delete(  );
+            }
+        }
 
         return sbLogs.toString(  );
     }
 
+    /**
+     * Writes the delta file between the snapshot of the previous export and the
+     * one of the current export, then makes the current snapshot the previous one.
+     * The first export only writes the snapshot. The delta files are numbered from 1,
+     * the last number being kept in the &lt;fileName&gt;.sequence file.
+     *
+     * @param strFolderPath the export folder
+     * @param strFileName the name of the export file
+     * @param fileSnapshot the snapshot of the previous export
+     * @param fileSnapshotTemp the snapshot of the current export
+     * @return the logs
+     * @throws IOException if the delta file cannot be written
+     */
+    private static String createDeltaFile( String strFolderPath, String strFileName, File fileSnapshot,
+        File fileSnapshotTemp ) throws IOException
+    {
+        String strLogs = "";
+
+        if ( fileSnapshot.exists(  ) )
+        {
+            File fileSequence = new File( strFolderPath + strFileName + SEQUENCE_FILE_EXTENSION );
+            long lSequence = 1;
+
+            if ( fileSequence.exists(  ) )
+            {
+                lSequence = Long.parseLong( new String( Files.readAllBytes( fileSequence.toPath(  ) ),
+                            StandardCharsets.UTF_8 ).trim(  ) ) + 1;
+            }
+
+            String strSequence = Long.toString( lSequence );
+            String strDeltaFileName = getDeltaFileName( strFileName, strSequence );
+            int[] nUserCounts = new int[2];
+
+            try ( WssoAtomicFile atomicFileDelta = new WssoAtomicFile( new File( strFolderPath + strDeltaFileName ) ) )
+            {
+                writeDeltaXml( atomicFileDelta.getWriter(  ), fileSnapshot, fileSnapshotTemp, strSequence, nUserCounts );
+                atomicFileDelta.commit( 0, isChecksumEnabled(  ) );
+            }
+
+            WssoAtomicFile.write( fileSequence, strSequence );
+            strLogs = MessageFormat.format( LOG_MESSAGE_DELTA, strDeltaFileName, Integer.toString( nUserCounts[0] ),
+                    Integer.toString( nUserCounts[1] ) );
+        }
+
+        WssoAtomicFile.replace( fileSnapshotTemp, fileSnapshot );
+
+        return strLogs;
+    }
+
+    /**
+     * @return the number of previous contents of the export file to keep
+     */
+    private static int getGenerationCount(  )
+    {
+        return Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_EXPORT_GENERATIONS, 0 ) );
+    }
+
+    /**
+     * @return true if the SHA-256 checksums of the exported files are published next to them
+     */
+    private static boolean isChecksumEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_EXPORT_CHECKSUM, false );
+    }
+
+    /**
+     * Builds the name of a delta file, from the adminauthenticationwsso.export.delta.fileName
+     * pattern or else from the name of the export file
+     *
+     * @param strFileName the name of the export file
+     * @param strSequence the sequence number of the delta
+     * @return the name of the delta file
+     */
+    private static String getDeltaFileName( String strFileName, String strSequence )
+    {
+        String strPattern = AppPropertiesService.getProperty( PROPERTY_EXPORT_DELTA_FILE_NAME );
+
+        if ( ( strPattern == null ) || strPattern.trim(  ).isEmpty(  ) )
+        {
+            int nExtension = strFileName.lastIndexOf( '.' );
+            strPattern = ( nExtension > 0 )
+                ? ( strFileName.substring( 0, nExtension ) + DELTA_FILE_SUFFIX + strFileName.substring( nExtension ) )
+                : ( strFileName + DELTA_FILE_SUFFIX );
+        }
+
+        return MessageFormat.format( strPattern.trim(  ), strSequence );
+    }
+
     /**
      * Delete the XML file on the file system
      *
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoLdapUtil;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+
+/**
+ * In-memory replica of the WSSO directory entries found under the user base.
+ * The replica is fully loaded, then refreshed incrementally with the entries
+ * modified since the previous synchronization. The incremental search cannot
+ * see the entries removed from the directory : they stay in the replica, and are
+ * found by the searches and GUID lookups, until the next full load which is done
+ * every fullSyncInterval seconds (one day by default). Lower this interval when
+ * the removals must be seen sooner.
+ */
+public final class WssoDirectoryReplicaService
+{
+    // Properties
+    private static final String PROPERTY_REPLICA_ENABLED = "adminauthenticationwsso.replica.enabled";
+    private static final String PROPERTY_REPLICA_FULL_SYNC_INTERVAL = "adminauthenticationwsso.replica.fullSyncInterval";
+    private static final String PROPERTY_REPLICA_CLOCK_SKEW = "adminauthenticationwsso.replica.clockSkew";
+    private static final String PROPERTY_REPLICA_SEARCH_BACKEND = "adminauthenticationwsso.replica.searchBackend";
+    private static final String PROPERTY_DN_ATTRIBUTE_MODIFY_TIMESTAMP = "adminauthenticationwsso.ldap.dn.attributeName.modifyTimestamp";
+
+    // Defaults
+    private static final long DEFAULT_FULL_SYNC_INTERVAL = 86400L;
+    private static final long DEFAULT_CLOCK_SKEW = 300L;
+    private static final String DEFAULT_ATTRIBUTE_MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    // Constants
+    private static final String CONSTANT_WILDCARD = "*";
+    private static final String SEARCH_BACKEND_SCAN = "scan";
+    private static final String GENERALIZED_TIME_FORMAT = "yyyyMMddHHmmss'Z'";
+    private static final String TIME_ZONE_UTC = "UTC";
+
+    private static final WssoDirectoryReplicaService _singleton = new WssoDirectoryReplicaService(  );
+    private volatile WssoDirectorySnapshot _snapshot;
+    private volatile long _lSyncCount;
+    private volatile long _lSyncFailureCount;
+
+    /**
+     * Private constructor
+     */
+    private WssoDirectoryReplicaService(  )
+    {
+    }
+
+    /**
+     * Returns the unique instance of the service
+     * @return the service
+     */
+    public static WssoDirectoryReplicaService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the replica mode is enabled
+     */
+    public boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_REPLICA_ENABLED, false );
+    }
+
+    /**
+     * @return true if the replica is enabled and has been loaded
+     */
+    public boolean isAvailable(  )
+    {
+        return isEnabled(  ) && ( _snapshot != null );
+    }
+
+    /**
+     * Synchronizes the replica with the directory. Called by the replica daemon.
+     * @return the synchronization logs
+     */
+    public synchronized String synchronize(  )
+    {
+        if ( !isEnabled(  ) )
+        {
+            _snapshot = null;
+
+            return "WSSO directory replica disabled";
+        }
+
+        WssoDirectorySnapshot snapshot = _snapshot;
+        long lNow = System.currentTimeMillis(  );
+        long lFullSyncInterval = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyLong( 
+                    PROPERTY_REPLICA_FULL_SYNC_INTERVAL, DEFAULT_FULL_SYNC_INTERVAL ) );
+        boolean bFullSync = ( snapshot == null ) || ( ( lNow - snapshot.getFullSyncDate(  ) ) >= lFullSyncInterval );
+
+        try
+        {
+            if ( bFullSync )
+            {
+                final Map<String, WssoDirectoryUser> mapUsers = new HashMap<String, WssoDirectoryUser>(  );
+                WssoLdapUtil.searchUsers( getAllUsersFilter(  ), listUsers -> putAll( mapUsers, listUsers ) );
+                _snapshot = new WssoDirectorySnapshot( mapUsers, lNow, lNow, isIndexed(  ) );
+
+                // Every entry was read again
+                WssoUserCacheService.getInstance(  ).removeAll(  );
+            }
+            else
+            {
+                final List<WssoDirectoryUser> listModified = new ArrayList<WssoDirectoryUser>(  );
+                WssoLdapUtil.searchUsers( getModifiedUsersFilter( snapshot.getSyncDate(  ) ),
+                    listUsers -> 
+                    {
+                        for ( WssoDirectoryUser user : listUsers )
+                        {
+                            WssoUserCacheService.getInstance(  ).remove( user.getGuid(  ) );
+                        }
+
+                        listModified.addAll( listUsers );
+
+                        return true;
+                    } );
+                _snapshot = snapshot.update( listModified, lNow, isIndexed(  ) );
+                AppLogService.debug( "WSSO directory replica : " + listModified.size(  ) + " modified entries" );
+            }
+
+            _lSyncCount++;
+        }
+        catch ( NamingException e )
+        {
+            _lSyncFailureCount++;
+            AppLogService.error( "Error while synchronizing the WSSO directory replica", e );
+        }
+
+        return getStatistics(  );
+    }
+
+    /**
+     * Returns a directory entry from the replica
+     * @param strGuid the WSSO GUID
+     * @return the entry, or null if the replica is not available or does not contain the GUID
+     */
+    public WssoDirectoryUser getUser( String strGuid )
+    {
+        WssoDirectorySnapshot snapshot = _snapshot;
+
+        if ( !isEnabled(  ) || ( snapshot == null ) || ( strGuid == null ) )
+        {
+            return null;
+        }
+
+        return snapshot.getUsersByGuid(  ).get( strGuid );
+    }
+
+    /**
+     * Searches the replica with the same prefix semantics as the directory search,
+     * ignoring case
+     * @param strLastName the last name prefix, or empty
+     * @param strFirstName the first name prefix, or empty
+     * @param strEmail the email prefix, or empty
+     * @return the matching entries, sorted with {@link WssoDirectoryUser#COMPARATOR}, or null if the replica cannot answer
+     *         and the directory must be searched
+     */
+    public List<WssoDirectoryUser> findUsers( String strLastName, String strFirstName, String strEmail )
+    {
+        WssoDirectorySnapshot snapshot = _snapshot;
+
+        if ( !isEnabled(  ) || ( snapshot == null ) || hasWildcard( strLastName ) || hasWildcard( strFirstName ) ||
+                hasWildcard( strEmail ) )
+        {
+            return null;
+        }
+
+        return snapshot.getSearchBackend(  ).findUsers( strLastName, strFirstName, strEmail );
+    }
+
+    /**
+     * @return the number of entries of the replica, or -1 if it is not loaded
+     */
+    public int getSize(  )
+    {
+        WssoDirectorySnapshot snapshot = _snapshot;
+
+        return ( snapshot == null ) ? ( -1 ) : snapshot.getUsersByGuid(  ).size(  );
+    }
+
+    /**
+     * @return the time elapsed since the last successful synchronization in
+     *         milliseconds, or -1 if the replica is not loaded
+     */
+    public long getAge(  )
+    {
+        WssoDirectorySnapshot snapshot = _snapshot;
+
+        return ( snapshot == null ) ? ( -1 ) : ( System.currentTimeMillis(  ) - snapshot.getSyncDate(  ) );
+    }
+
+    /**
+     * @return the number of successful synchronizations
+     */
+    public long getSyncCount(  )
+    {
+        return _lSyncCount;
+    }
+
+    /**
+     * @return the number of failed synchronizations
+     */
+    public long getSyncFailureCount(  )
+    {
+        return _lSyncFailureCount;
+    }
+
+    /**
+     * Returns the replica statistics in a format suitable for logs
+     * @return the statistics
+     */
+    public String getStatistics(  )
+    {
+        StringBuilder sbStatistics = new StringBuilder(  );
+        sbStatistics.append( "WSSO directory replica : size=" ).append( getSize(  ) );
+        sbStatistics.append( ", age=" ).append( getAge(  ) ).append( "ms" );
+        sbStatistics.append( ", syncs=" ).append( getSyncCount(  ) );
+        sbStatistics.append( ", failures=" ).append( getSyncFailureCount(  ) );
+
+        return sbStatistics.toString(  );
+    }
+
+    /**
+     * Adds a page of entries to the replica being built
+     * @param mapUsers the entries by GUID
+     * @param listUsers the page
+     * @return true to read the next page
+     */
+    private static boolean putAll( Map<String, WssoDirectoryUser> mapUsers, List<WssoDirectoryUser> listUsers )
+    {
+        for ( WssoDirectoryUser user : listUsers )
+        {
+            mapUsers.put( user.getGuid(  ), user );
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the filter of all the WSSO users : the criteria filter with wildcards
+     */
+    private static String getAllUsersFilter(  )
+    {
+        Object[] messageFormatParam = { CONSTANT_WILDCARD, CONSTANT_WILDCARD, CONSTANT_WILDCARD };
+
+        return MessageFormat.format( WssoLdapUtil.getUserDnSearchFilterByCriteria(  ), messageFormatParam );
+    }
+
+    /**
+     * Returns the filter of the WSSO users modified since a date. The date is moved
+     * back by the configured clock skew between the server and the directory.
+     * @param lSyncDate the date of the previous synchronization in milliseconds
+     * @return the filter
+     */
+    private static String getModifiedUsersFilter( long lSyncDate )
+    {
+        long lClockSkew = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyLong( 
+                    PROPERTY_REPLICA_CLOCK_SKEW, DEFAULT_CLOCK_SKEW ) );
+        DateFormat dateFormat = new SimpleDateFormat( GENERALIZED_TIME_FORMAT, Locale.ROOT );
+        dateFormat.setTimeZone( TimeZone.getTimeZone( TIME_ZONE_UTC ) );
+
+        String strAttribute = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_MODIFY_TIMESTAMP,
+                DEFAULT_ATTRIBUTE_MODIFY_TIMESTAMP );
+
+        return "(&" + getAllUsersFilter(  ) + "(" + strAttribute + ">=" +
+        dateFormat.format( new Date( lSyncDate - lClockSkew ) ) + "))";
+    }
+
+    /**
+     * @param strValue a search criterion
+     * @return true if the criterion contains an LDAP wildcard
+     */
+    private static boolean hasWildcard( String strValue )
+    {
+        return ( strValue != null ) && ( strValue.indexOf( CONSTANT_WILDCARD.charAt( 0 ) ) >= 0 );
+    }
+
+    /**
+     * @return true if the snapshots are searched through a prefix index, false
+     *         if they are scanned
+     */
+    private static boolean isIndexed(  )
+    {
+        return !SEARCH_BACKEND_SCAN.equalsIgnoreCase( AppPropertiesService.getProperty( 
+                PROPERTY_REPLICA_SEARCH_BACKEND, "" ).trim(  ) );
+    }
+}
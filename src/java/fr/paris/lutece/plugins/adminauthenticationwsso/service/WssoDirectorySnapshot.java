@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Immutable state of the WSSO directory replica
+ */
+final class WssoDirectorySnapshot
+{
+    private final Map<String, WssoDirectoryUser> _mapUsers;
+    private final long _lFullSyncDate;
+    private final long _lSyncDate;
+    private final IWssoUserSearchBackend _searchBackend;
+
+    /**
+     * Constructor
+     * @param mapUsers the directory entries by GUID, which must not be modified afterwards
+     * @param lFullSyncDate the date of the last full load, in milliseconds
+     * @param lSyncDate the date of the last synchronization, in milliseconds
+     * @param bIndexed true to build the prefix index of the entries, false to scan them
+     */
+    WssoDirectorySnapshot( Map<String, WssoDirectoryUser> mapUsers, long lFullSyncDate, long lSyncDate,
+        boolean bIndexed )
+    {
+        this( Collections.unmodifiableMap( mapUsers ), lFullSyncDate, lSyncDate,
+            bIndexed ? new WssoUserIndexSearchBackend( mapUsers.values(  ) ) : new WssoUserScanSearchBackend( 
+                mapUsers.values(  ) ) );
+    }
+
+    /**
+     * Constructor
+     * @param mapUsers the unmodifiable directory entries by GUID
+     * @param lFullSyncDate the date of the last full load, in milliseconds
+     * @param lSyncDate the date of the last synchronization, in milliseconds
+     * @param searchBackend the search backend of the entries
+     */
+    private WssoDirectorySnapshot( Map<String, WssoDirectoryUser> mapUsers, long lFullSyncDate, long lSyncDate,
+        IWssoUserSearchBackend searchBackend )
+    {
+        _mapUsers = mapUsers;
+        _lFullSyncDate = lFullSyncDate;
+        _lSyncDate = lSyncDate;
+        _searchBackend = searchBackend;
+    }
+
+    /**
+     * Returns the snapshot updated with the entries read again from the directory.
+     * The entries whose attributes did not change are ignored : when none changed,
+     * the entries and the search backend are shared with this snapshot. Otherwise
+     * the prefix index is updated with the changed entries instead of being built again.
+     * @param listUsers the entries read again
+     * @param lSyncDate the date of the synchronization, in milliseconds
+     * @param bIndexed true to use the prefix index, false to scan the entries
+     * @return the updated snapshot
+     */
+    WssoDirectorySnapshot update( Collection<WssoDirectoryUser> listUsers, long lSyncDate, boolean bIndexed )
+    {
+        Map<String, WssoDirectoryUser> mapChanged = new LinkedHashMap<String, WssoDirectoryUser>(  );
+
+        for ( WssoDirectoryUser user : listUsers )
+        {
+            mapChanged.put( user.getGuid(  ), user );
+        }
+
+        List<WssoDirectoryUser> listRemoved = new ArrayList<WssoDirectoryUser>(  );
+        List<WssoDirectoryUser> listAdded = new ArrayList<WssoDirectoryUser>(  );
+
+        for ( WssoDirectoryUser user : mapChanged.values(  ) )
+        {
+            WssoDirectoryUser previous = _mapUsers.get( user.getGuid(  ) );
+
+            if ( previous == null )
+            {
+                listAdded.add( user );
+            }
+            else if ( !hasSameAttributes( previous, user ) )
+            {
+                listRemoved.add( previous );
+                listAdded.add( user );
+            }
+        }
+
+        boolean bWasIndexed = _searchBackend instanceof WssoUserIndexSearchBackend;
+
+        if ( listAdded.isEmpty(  ) && ( bWasIndexed == bIndexed ) )
+        {
+            return new WssoDirectorySnapshot( _mapUsers, _lFullSyncDate, lSyncDate, _searchBackend );
+        }
+
+        Map<String, WssoDirectoryUser> mapUsers = new HashMap<String, WssoDirectoryUser>( _mapUsers );
+
+        for ( WssoDirectoryUser user : listAdded )
+        {
+            mapUsers.put( user.getGuid(  ), user );
+        }
+
+        if ( !bIndexed || !bWasIndexed )
+        {
+            return new WssoDirectorySnapshot( mapUsers, _lFullSyncDate, lSyncDate, bIndexed );
+        }
+
+        return new WssoDirectorySnapshot( Collections.unmodifiableMap( mapUsers ), _lFullSyncDate, lSyncDate,
+            new WssoUserIndexSearchBackend( (WssoUserIndexSearchBackend) _searchBackend, listRemoved, listAdded ) );
+    }
+
+    /**
+     * @return the directory entries by GUID
+     */
+    Map<String, WssoDirectoryUser> getUsersByGuid(  )
+    {
+        return _mapUsers;
+    }
+
+    /**
+     * @return the directory entries
+     */
+    Collection<WssoDirectoryUser> getUsers(  )
+    {
+        return _mapUsers.values(  );
+    }
+
+    /**
+     * @return the search backend of the entries
+     */
+    IWssoUserSearchBackend getSearchBackend(  )
+    {
+        return _searchBackend;
+    }
+
+    /**
+     * @return the date of the last full load, in milliseconds
+     */
+    long getFullSyncDate(  )
+    {
+        return _lFullSyncDate;
+    }
+
+    /**
+     * @return the date of the last synchronization, in milliseconds
+     */
+    long getSyncDate(  )
+    {
+        return _lSyncDate;
+    }
+
+    /**
+     * @param user1 an entry
+     * @param user2 another entry
+     * @return true if the entries have the same attributes
+     */
+    private static boolean hasSameAttributes( WssoDirectoryUser user1, WssoDirectoryUser user2 )
+    {
+        return Objects.equals( user1.getLastName(  ), user2.getLastName(  ) ) &&
+        Objects.equals( user1.getFirstName(  ), user2.getFirstName(  ) ) &&
+        Objects.equals( user1.getEmail(  ), user2.getEmail(  ) );
+    }
+}
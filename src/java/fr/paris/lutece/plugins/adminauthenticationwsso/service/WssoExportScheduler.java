@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Exports the WSSO users file shortly after the admin users change, instead of
+ * waiting for the next run of the export daemon. The changes are coalesced : the
+ * export runs once no change has been notified for
+ * adminauthenticationwsso.export.onChange.debounce milliseconds, and at the latest
+ * adminauthenticationwsso.export.onChange.maxDelay milliseconds after the first
+ * change not exported yet. The exports run one at a time, on a daemon thread.
+ */
+public final class WssoExportScheduler
+{
+    // Properties
+    private static final String PROPERTY_ON_CHANGE_ENABLED = "adminauthenticationwsso.export.onChange.enabled";
+    private static final String PROPERTY_ON_CHANGE_DEBOUNCE = "adminauthenticationwsso.export.onChange.debounce";
+    private static final String PROPERTY_ON_CHANGE_MAX_DELAY = "adminauthenticationwsso.export.onChange.maxDelay";
+
+    // Defaults
+    private static final long DEFAULT_DEBOUNCE = 5000L;
+    private static final long DEFAULT_MAX_DELAY = 60000L;
+    private static final String THREAD_NAME = "adminauthenticationwsso-export";
+    private static final String PLUGIN_NAME = "adminauthenticationwsso";
+    private static final WssoExportScheduler _singleton = new WssoExportScheduler(  );
+    private final ScheduledExecutorService _scheduler;
+    private final long _lDebounce;
+    private final long _lMaxDelay;
+
+    /** Time of the first change not exported yet */
+    private long _lFirstChange;
+
+    /** Time of the last change */
+    private long _lLastChange;
+
+    /** Whether an export is scheduled */
+    private boolean _bScheduled;
+
+    /**
+     * Private constructor
+     */
+    private WssoExportScheduler(  )
+    {
+        _lDebounce = Math.max( 0L, AppPropertiesService.getPropertyLong( PROPERTY_ON_CHANGE_DEBOUNCE, DEFAULT_DEBOUNCE ) );
+        _lMaxDelay = Math.max( _lDebounce, AppPropertiesService.getPropertyLong( PROPERTY_ON_CHANGE_MAX_DELAY, DEFAULT_MAX_DELAY ) );
+        _scheduler = new ScheduledThreadPoolExecutor( 1,
+                runnable -> 
+                {
+                    Thread thread = new Thread( runnable, THREAD_NAME );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } );
+    }
+
+    /**
+     * Returns the unique instance
+     * @return the export scheduler
+     */
+    public static WssoExportScheduler getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the admin user changes trigger an export
+     */
+    public static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ON_CHANGE_ENABLED, true );
+    }
+
+    /**
+     * Notifies a change of the admin users. Cheap enough to be called for every
+     * user of an import : only the first change schedules an export.
+     */
+    public void notifyChange(  )
+    {
+        if ( !isEnabled(  ) )
+        {
+            return;
+        }
+
+        long lNow = System.currentTimeMillis(  );
+
+        synchronized ( this )
+        {
+            _lLastChange = lNow;
+
+            if ( !_bScheduled )
+            {
+                _bScheduled = true;
+                _lFirstChange = lNow;
+                _scheduler.schedule( this::export, _lDebounce, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    /**
+     * Exports the file if no change happened for the debounce delay or the first
+     * change is old enough, otherwise waits again. The changes notified during the
+     * export schedule the next one.
+     */
+    private void export(  )
+    {
+        synchronized ( this )
+        {
+            long lNow = System.currentTimeMillis(  );
+            long lDue = Math.min( _lLastChange + _lDebounce, _lFirstChange + _lMaxDelay );
+
+            if ( lDue > lNow )
+            {
+                _scheduler.schedule( this::export, lDue - lNow, TimeUnit.MILLISECONDS );
+
+                return;
+            }
+
+            _bScheduled = false;
+        }
+
+        try
+        {
+            String strLogs = AutoExportWssoAdminUsersFile.processExportXmlFile( PluginService.getPlugin( PLUGIN_NAME ) );
+            AppLogService.info( "WSSO users file export after admin user changes : " + strLogs.trim(  ) );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( "Error while exporting the WSSO users file after admin user changes", e );
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.IWssoAccessCodeHandler;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoAtomicFile;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.TreeSet;
+
+
+/**
+ * Snapshot of the exported GUIDs, written as they are exported : one GUID per
+ * line, in ascending order, so that two snapshots are compared by a single merge.
+ * The GUIDs come in access code order from the database. Should the database
+ * collation order them otherwise, the snapshot is sorted when closed.
+ * The snapshot is synced to the disk when closed.
+ */
+final class WssoExportSnapshot implements IWssoAccessCodeHandler, Closeable
+{
+    private final File _file;
+    private final FileOutputStream _outputStream;
+    private final BufferedWriter _writer;
+    private String _strLastAccessCode;
+    private boolean _bSorted = true;
+
+    /**
+     * Constructor
+     * @param file the snapshot file, overwritten
+     * @throws IOException if the file cannot be opened
+     */
+    WssoExportSnapshot( File file ) throws IOException
+    {
+        _file = file;
+        _outputStream = new FileOutputStream( file );
+        _writer = new BufferedWriter( new OutputStreamWriter( _outputStream, StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleAccessCode( String strAccessCode ) throws IOException
+    {
+        if ( ( _strLastAccessCode != null ) && ( strAccessCode.compareTo( _strLastAccessCode ) <= 0 ) )
+        {
+            _bSorted = false;
+        }
+
+        _writer.write( strAccessCode );
+        _writer.newLine(  );
+        _strLastAccessCode = strAccessCode;
+    }
+
+    /**
+     * Closes the snapshot, sorting it if the GUIDs did not come in order
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close(  ) throws IOException
+    {
+        try
+        {
+            _writer.flush(  );
+            _outputStream.getFD(  ).sync(  );
+        }
+        finally
+        {
+            _writer.close(  );
+        }
+
+        if ( !_bSorted )
+        {
+            AppLogService.info( "WSSO export : the GUIDs were not read in ascending order, the snapshot is sorted in memory" );
+
+            try ( WssoAtomicFile atomicFile = new WssoAtomicFile( _file ) )
+            {
+                for ( String strAccessCode : new TreeSet<String>( Files.readAllLines( _file.toPath(  ), StandardCharsets.UTF_8 ) ) )
+                {
+                    atomicFile.getWriter(  ).write( strAccessCode );
+                    atomicFile.getWriter(  ).write( '\n' );
+                }
+
+                atomicFile.commit(  );
+            }
+        }
+    }
+
+    /**
+     * Compares two snapshots in a single pass
+     * @param filePrevious the previous snapshot
+     * @param fileCurrent the current snapshot
+     * @param addedHandler receives the GUIDs of the current snapshot only, in order
+     * @param removedHandler receives the GUIDs of the previous snapshot only, in order
+     * @throws IOException if a snapshot cannot be read or a handler fails
+     */
+    static void diff( File filePrevious, File fileCurrent, IWssoAccessCodeHandler addedHandler,
+        IWssoAccessCodeHandler removedHandler ) throws IOException
+    {
+        try ( BufferedReader readerPrevious = Files.newBufferedReader( filePrevious.toPath(  ), StandardCharsets.UTF_8 );
+                BufferedReader readerCurrent = Files.newBufferedReader( fileCurrent.toPath(  ), StandardCharsets.UTF_8 ) )
+        {
+            String strPrevious = readerPrevious.readLine(  );
+            String strCurrent = readerCurrent.readLine(  );
+
+            while ( ( strPrevious != null ) || ( strCurrent != null ) )
+            {
+                int nCompare = ( strPrevious == null ) ? 1 : ( ( strCurrent == null ) ? ( -1 ) : strPrevious.compareTo( strCurrent ) );
+
+                if ( nCompare < 0 )
+                {
+                    removedHandler.handleAccessCode( strPrevious );
+                    strPrevious = readerPrevious.readLine(  );
+                }
+                else if ( nCompare > 0 )
+                {
+                    addedHandler.handleAccessCode( strCurrent );
+                    strCurrent = readerCurrent.readLine(  );
+                }
+                else
+                {
+                    strPrevious = readerPrevious.readLine(  );
+                    strCurrent = readerCurrent.readLine(  );
+                }
+            }
+        }
+    }
+}
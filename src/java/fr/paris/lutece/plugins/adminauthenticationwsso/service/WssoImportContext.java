@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.business.user.attribute.IAttribute;
+import fr.paris.lutece.portal.business.user.attribute.ISimpleValuesAttributes;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.user.attribute.AdminUserFieldListenerService;
+import fr.paris.lutece.portal.service.user.attribute.AttributeService;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Lookups needed to write the lines of a user import, which do not change during
+ * the import : they are made once per file instead of once per line
+ */
+final class WssoImportContext
+{
+    private final Locale _locale;
+    private final Map<Integer, ISimpleValuesAttributes> _mapSimpleAttributes = new HashMap<Integer, ISimpleValuesAttributes>(  );
+    private final Set<Integer> _setPluginAttributeIds = new HashSet<Integer>(  );
+    private final List<AdminUserFieldListenerService> _listFieldListeners;
+    private final ThreadLocal<DateFormat> _dateFormat = new ThreadLocal<DateFormat>(  )
+        {
+            @Override
+            protected DateFormat initialValue(  )
+            {
+                return new SimpleDateFormat(  );
+            }
+        };
+
+    /**
+     * Constructor
+     * @param locale the locale of the import
+     */
+    WssoImportContext( Locale locale )
+    {
+        _locale = locale;
+
+        Plugin pluginCore = PluginService.getCore(  );
+
+        for ( IAttribute attribute : AttributeService.getInstance(  ).getAllAttributesWithoutFields( locale ) )
+        {
+            if ( attribute instanceof ISimpleValuesAttributes )
+            {
+                _mapSimpleAttributes.put( attribute.getIdAttribute(  ), (ISimpleValuesAttributes) attribute );
+
+                if ( ( attribute.getPlugin(  ) != null ) &&
+                        !StringUtils.equals( pluginCore.getName(  ), attribute.getPlugin(  ).getName(  ) ) )
+                {
+                    _setPluginAttributeIds.add( attribute.getIdAttribute(  ) );
+                }
+            }
+        }
+
+        _listFieldListeners = Collections.unmodifiableList( SpringContextService.getBeansOfType( 
+                    AdminUserFieldListenerService.class ) );
+    }
+
+    /**
+     * @return the locale of the import
+     */
+    Locale getLocale(  )
+    {
+        return _locale;
+    }
+
+    /**
+     * Returns the attribute whose values can be imported from a file
+     * @param nIdAttribute the id of the attribute
+     * @return the attribute, or null if there is no such attribute with simple values
+     */
+    ISimpleValuesAttributes getSimpleValuesAttribute( int nIdAttribute )
+    {
+        return _mapSimpleAttributes.get( nIdAttribute );
+    }
+
+    /**
+     * Checks whether an attribute belongs to a plugin rather than to the core, in
+     * which case the field listeners are notified of its fields
+     * @param nIdAttribute the id of the attribute
+     * @return true if the attribute is a plugin attribute
+     */
+    boolean isPluginAttribute( int nIdAttribute )
+    {
+        return _setPluginAttributeIds.contains( nIdAttribute );
+    }
+
+    /**
+     * @return the listeners of the admin user fields
+     */
+    List<AdminUserFieldListenerService> getFieldListeners(  )
+    {
+        return _listFieldListeners;
+    }
+
+    /**
+     * @return the format of the last login dates, for the calling thread since
+     *         date formats are not thread safe
+     */
+    DateFormat getDateFormat(  )
+    {
+        return _dateFormat.get(  );
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
+import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import org.apache.commons.fileupload.FileItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * User import running in the background, submitted by {@link WssoImportJobService}
+ */
+public final class WssoImportJob
+{
+    /** The job waits for a thread */
+    public static final String STATUS_PENDING = "PENDING";
+
+    /** The import is running */
+    public static final String STATUS_RUNNING = "RUNNING";
+
+    /** The import is done */
+    public static final String STATUS_DONE = "DONE";
+
+    /** The import stopped on an unexpected error */
+    public static final String STATUS_FAILED = "FAILED";
+
+    // Messages
+    private static final String MESSAGE_IMPORT_JOB_FAILED = "adminauthenticationwsso.import_users_from_file.importJobFailed";
+    private final String _strId;
+    private final FileItem _fileItem;
+    private final int _nTotalLineCount;
+    private final int _nColumnNumber;
+    private final boolean _bCheckFileBeforeProcessing;
+    private final boolean _bExitOnError;
+    private final boolean _bSkipFirstLine;
+    private final Locale _locale;
+    private final String _strBaseUrl;
+    private final long _lSubmitDate = System.currentTimeMillis(  );
+    private final CompletableFuture<List<CSVMessageDescriptor>> _futureMessages = new CompletableFuture<List<CSVMessageDescriptor>>(  );
+    private volatile String _strStatus = STATUS_PENDING;
+    private volatile WssoImportSession _session;
+    private volatile long _lStartDate;
+    private volatile long _lEndDate;
+    private volatile int _nDoneLineCount;
+    private volatile int _nErrorLineCount;
+
+    /**
+     * Constructor
+     * @param strId the id of the job
+     * @param fileItem the import file, owned by the job
+     * @param nTotalLineCount the number of lines of the file to import
+     * @param nColumnNumber the number of columns of the lines, or a negative value
+     * @param bCheckFileBeforeProcessing true to check the whole file first
+     * @param bExitOnError true to stop after the first line in error
+     * @param bSkipFirstLine true if the first line is a header
+     * @param locale the locale
+     * @param strBaseUrl the base URL
+     */
+    WssoImportJob( String strId, FileItem fileItem, int nTotalLineCount, int nColumnNumber,
+        boolean bCheckFileBeforeProcessing, boolean bExitOnError, boolean bSkipFirstLine, Locale locale,
+        String strBaseUrl )
+    {
+        _strId = strId;
+        _fileItem = fileItem;
+        _nTotalLineCount = nTotalLineCount;
+        _nColumnNumber = nColumnNumber;
+        _bCheckFileBeforeProcessing = bCheckFileBeforeProcessing;
+        _bExitOnError = bExitOnError;
+        _bSkipFirstLine = bSkipFirstLine;
+        _locale = locale;
+        _strBaseUrl = strBaseUrl;
+    }
+
+    /**
+     * Runs the import in the calling thread
+     * @param importService the import service
+     */
+    void run( WssoAdminUserImportService importService )
+    {
+        List<CSVMessageDescriptor> listMessages;
+        String strStatus = STATUS_DONE;
+        _lStartDate = System.currentTimeMillis(  );
+
+        try
+        {
+            _session = WssoImportSession.open(  );
+            _strStatus = STATUS_RUNNING;
+            listMessages = importService.readCSVFile( _fileItem, _nColumnNumber, _bCheckFileBeforeProcessing,
+                    _bExitOnError, _bSkipFirstLine, _locale, _strBaseUrl );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( "Error while running the WSSO user import job " + _strId, e );
+            listMessages = new ArrayList<CSVMessageDescriptor>(  );
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0,
+                    I18nService.getLocalizedString( MESSAGE_IMPORT_JOB_FAILED, _locale ) ) );
+            strStatus = STATUS_FAILED;
+        }
+        finally
+        {
+            // The session is released, only its counts are kept with the report
+            WssoImportSession session = _session;
+
+            if ( session != null )
+            {
+                _nDoneLineCount = session.getDoneLineCount(  );
+                _nErrorLineCount = session.getErrorLineCount(  );
+                _session = null;
+            }
+
+            WssoImportSession.close(  );
+            _fileItem.delete(  );
+            _lEndDate = System.currentTimeMillis(  );
+        }
+
+        _strStatus = strStatus;
+        _futureMessages.complete( Collections.unmodifiableList( listMessages ) );
+    }
+
+    /**
+     * Marks the job as failed without running it
+     * @param e the cause
+     */
+    void fail( Exception e )
+    {
+        AppLogService.error( "The WSSO user import job " + _strId + " could not run", e );
+        _fileItem.delete(  );
+        _lEndDate = System.currentTimeMillis(  );
+        _strStatus = STATUS_FAILED;
+        _futureMessages.complete( Collections.singletonList( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0,
+                    I18nService.getLocalizedString( MESSAGE_IMPORT_JOB_FAILED, _locale ) ) ) );
+    }
+
+    /**
+     * Waits for the messages of the import
+     * @param lDelay the maximum wait in milliseconds
+     * @return the messages, or null if the import is not done after the delay
+     */
+    List<CSVMessageDescriptor> waitForMessages( long lDelay )
+    {
+        try
+        {
+            return _futureMessages.get( lDelay, TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            return null;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+
+            return null;
+        }
+        catch ( ExecutionException e )
+        {
+            // The future is never completed exceptionally
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * @return the id of the job
+     */
+    public String getId(  )
+    {
+        return _strId;
+    }
+
+    /**
+     * @return the status of the job, one of the STATUS_ constants
+     */
+    public String getStatus(  )
+    {
+        return _strStatus;
+    }
+
+    /**
+     * @return true if the import is over, successfully or not
+     */
+    public boolean isFinished(  )
+    {
+        return _futureMessages.isDone(  );
+    }
+
+    /**
+     * @return the date the job was submitted, in milliseconds
+     */
+    public long getSubmitDate(  )
+    {
+        return _lSubmitDate;
+    }
+
+    /**
+     * @return the date the import ended in milliseconds, or 0 if it did not
+     */
+    public long getEndDate(  )
+    {
+        return _lEndDate;
+    }
+
+    /**
+     * @return the number of lines of the file to import, counted when the job was submitted
+     */
+    public int getTotalLineCount(  )
+    {
+        return _nTotalLineCount;
+    }
+
+    /**
+     * @return the number of lines done with so far
+     */
+    public int getDoneLineCount(  )
+    {
+        WssoImportSession session = _session;
+
+        return ( session != null ) ? session.getDoneLineCount(  ) : _nDoneLineCount;
+    }
+
+    /**
+     * @return the number of lines in error so far
+     */
+    public int getErrorLineCount(  )
+    {
+        WssoImportSession session = _session;
+
+        return ( session != null ) ? session.getErrorLineCount(  ) : _nErrorLineCount;
+    }
+
+    /**
+     * @return the number of lines done with per second since the import started
+     */
+    public double getLinesPerSecond(  )
+    {
+        long lStartDate = _lStartDate;
+
+        if ( lStartDate == 0 )
+        {
+            return 0;
+        }
+
+        long lEndDate = ( _lEndDate != 0 ) ? _lEndDate : System.currentTimeMillis(  );
+
+        return ( getDoneLineCount(  ) * 1000d ) / Math.max( 1L, lEndDate - lStartDate );
+    }
+
+    /**
+     * @return the estimated number of seconds before the end of the import, or
+     *         -1 if unknown
+     */
+    public long getRemainingSeconds(  )
+    {
+        if ( isFinished(  ) )
+        {
+            return 0;
+        }
+
+        double dLinesPerSecond = getLinesPerSecond(  );
+
+        if ( dLinesPerSecond <= 0 )
+        {
+            return -1;
+        }
+
+        return (long) Math.ceil( Math.max( 0, _nTotalLineCount - getDoneLineCount(  ) ) / dLinesPerSecond );
+    }
+
+    /**
+     * @return the messages of the import, or null if it is not finished
+     */
+    public List<CSVMessageDescriptor> getMessages(  )
+    {
+        return _futureMessages.getNow( null );
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs the user imports in the background, on a bounded pool of daemon threads,
+ * so that they do not hold the HTTP request that uploaded the file. The jobs are
+ * kept adminauthenticationwsso.import.jobs.retention milliseconds after their end,
+ * for their report to be read.
+ */
+public final class WssoImportJobService
+{
+    // Properties
+    private static final String PROPERTY_JOBS_ENABLED = "adminauthenticationwsso.import.jobs.enabled";
+    private static final String PROPERTY_JOBS_MAX_THREADS = "adminauthenticationwsso.import.jobs.maxThreads";
+    private static final String PROPERTY_JOBS_MAX_QUEUED = "adminauthenticationwsso.import.jobs.maxQueued";
+    private static final String PROPERTY_JOBS_WAIT_DELAY = "adminauthenticationwsso.import.jobs.waitDelay";
+    private static final String PROPERTY_JOBS_RETENTION = "adminauthenticationwsso.import.jobs.retention";
+
+    // Defaults
+    private static final int DEFAULT_MAX_THREADS = 1;
+    private static final int DEFAULT_MAX_QUEUED = 5;
+    private static final long DEFAULT_WAIT_DELAY = 10000L;
+    private static final long DEFAULT_RETENTION = 3600000L;
+    private static final String THREAD_NAME_PREFIX = "adminauthenticationwsso-import-job-";
+    private static final String FIELD_NAME_IMPORT_FILE = "import_file";
+    private static final int BUFFER_SIZE = 8192;
+    private static final WssoImportJobService _singleton = new WssoImportJobService(  );
+    private final Map<String, WssoImportJob> _mapJobs = new ConcurrentHashMap<String, WssoImportJob>(  );
+    private final ThreadPoolExecutor _executor;
+    private final AtomicInteger _nThreadCount = new AtomicInteger(  );
+
+    /**
+     * Private constructor
+     */
+    private WssoImportJobService(  )
+    {
+        int nMaxThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_JOBS_MAX_THREADS, DEFAULT_MAX_THREADS ) );
+        int nMaxQueued = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_JOBS_MAX_QUEUED, DEFAULT_MAX_QUEUED ) );
+        _executor = new ThreadPoolExecutor( nMaxThreads, nMaxThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( nMaxQueued ),
+                runnable -> 
+                {
+                    Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet(  ) );
+                    thread.setDaemon( true );
+
+                    return thread;
+                } );
+    }
+
+    /**
+     * Returns the unique instance
+     * @return the import job service
+     */
+    public static WssoImportJobService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * @return true if the imports run in the background
+     */
+    static boolean isEnabled(  )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_JOBS_ENABLED, true );
+    }
+
+    /**
+     * @return the time the importing request waits for the end of a job before
+     *         the import goes on in the background, in milliseconds
+     */
+    long getWaitDelay(  )
+    {
+        return AppPropertiesService.getPropertyLong( PROPERTY_JOBS_WAIT_DELAY, DEFAULT_WAIT_DELAY );
+    }
+
+    /**
+     * Submits an import. The file is copied first, since the uploaded file is only
+     * valid during the request.
+     * @param importService the import service
+     * @param fileItem the uploaded file
+     * @param nColumnNumber the number of columns of the lines, or a negative value
+     * @param bCheckFileBeforeProcessing true to check the whole file first
+     * @param bExitOnError true to stop after the first line in error
+     * @param bSkipFirstLine true if the first line is a header
+     * @param locale the locale
+     * @param strBaseUrl the base URL
+     * @return the job
+     * @throws IOException if the file cannot be copied
+     * @throws RejectedExecutionException if too many imports are pending
+     */
+    WssoImportJob submit( final WssoAdminUserImportService importService, FileItem fileItem, int nColumnNumber,
+        boolean bCheckFileBeforeProcessing, boolean bExitOnError, boolean bSkipFirstLine, Locale locale,
+        String strBaseUrl ) throws IOException
+    {
+        removeExpiredJobs(  );
+
+        FileItem fileCopy = new DiskFileItemFactory( 0, null ).createItem( FIELD_NAME_IMPORT_FILE,
+                fileItem.getContentType(  ), false, fileItem.getName(  ) );
+        int nLineCount;
+
+        try
+        {
+            nLineCount = copy( fileItem, fileCopy );
+        }
+        catch ( IOException e )
+        {
+            fileCopy.delete(  );
+            throw e;
+        }
+
+        if ( bSkipFirstLine && ( nLineCount > 0 ) )
+        {
+            nLineCount--;
+        }
+
+        final WssoImportJob job = new WssoImportJob( UUID.randomUUID(  ).toString(  ), fileCopy, nLineCount,
+                nColumnNumber, bCheckFileBeforeProcessing, bExitOnError, bSkipFirstLine, locale, strBaseUrl );
+        _mapJobs.put( job.getId(  ), job );
+
+        try
+        {
+            _executor.execute( () -> job.run( importService ) );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            _mapJobs.remove( job.getId(  ) );
+            job.fail( e );
+            throw e;
+        }
+
+        AppLogService.info( "WSSO user import job " + job.getId(  ) + " submitted : " + nLineCount + " lines" );
+
+        return job;
+    }
+
+    /**
+     * Returns a job
+     * @param strId the id of the job
+     * @return the job, or null if it does not exist or its report has expired
+     */
+    public WssoImportJob getJob( String strId )
+    {
+        removeExpiredJobs(  );
+
+        return ( strId == null ) ? null : _mapJobs.get( strId );
+    }
+
+    /**
+     * Removes the jobs ended for longer than the retention delay
+     */
+    private void removeExpiredJobs(  )
+    {
+        long lLimit = System.currentTimeMillis(  ) -
+            AppPropertiesService.getPropertyLong( PROPERTY_JOBS_RETENTION, DEFAULT_RETENTION );
+
+        for ( Iterator<WssoImportJob> iterator = _mapJobs.values(  ).iterator(  ); iterator.hasNext(  ); )
+        {
+            WssoImportJob job = iterator.next(  );
+
+            if ( job.isFinished(  ) && ( job.getEndDate(  ) < lLimit ) )
+            {
+                iterator.remove(  );
+            }
+        }
+    }
+
+    /**
+     * Copies a file, counting its lines
+     * @param fileSource the file to copy
+     * @param fileTarget the copy
+     * @return the number of lines
+     * @throws IOException if the file cannot be copied
+     */
+    private static int copy( FileItem fileSource, FileItem fileTarget )
+        throws IOException
+    {
+        int nLineCount = 0;
+        int nLastByte = '\n';
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try ( InputStream in = fileSource.getInputStream(  );
+                OutputStream out = fileTarget.getOutputStream(  ) )
+        {
+            for ( int nRead = in.read( buffer ); nRead >= 0; nRead = in.read( buffer ) )
+            {
+                for ( int i = 0; i < nRead; i++ )
+                {
+                    if ( buffer[i] == '\n' )
+                    {
+                        nLineCount++;
+                    }
+                }
+
+                if ( nRead > 0 )
+                {
+                    out.write( buffer, 0, nRead );
+                    nLastByte = buffer[nRead - 1];
+                }
+            }
+        }
+
+        // The last line may not end with a line feed
+        return ( nLastByte == '\n' ) ? nLineCount : ( nLineCount + 1 );
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
+import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A line of a user import file, with the results of its processing stages
+ */
+final class WssoImportLine
+{
+    /** The line has not been written */
+    static final int OUTCOME_NONE = 0;
+
+    /** The line has created a user */
+    static final int OUTCOME_CREATED = 1;
+
+    /** The line has updated a user */
+    static final int OUTCOME_UPDATED = 2;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final char VALUE_SEPARATOR = '\u001f';
+    private final String[] _strLineDataArray;
+    private final int _nLineNumber;
+    private final List<CSVMessageDescriptor> _listMessages = new ArrayList<CSVMessageDescriptor>(  );
+    private List<String> _listGuids = Collections.emptyList(  );
+    private boolean _bProcessed;
+    private int _nOutcome = OUTCOME_NONE;
+    private String _strContentHash;
+
+    /**
+     * Constructor
+     * @param strLineDataArray the values of the line
+     * @param nLineNumber the line number
+     */
+    WssoImportLine( String[] strLineDataArray, int nLineNumber )
+    {
+        _strLineDataArray = strLineDataArray;
+        _nLineNumber = nLineNumber;
+    }
+
+    /**
+     * @return the values of the line
+     */
+    String[] getData(  )
+    {
+        return _strLineDataArray;
+    }
+
+    /**
+     * @param nColumn a column index
+     * @return the value of the column, or null if the line is shorter
+     */
+    String getValue( int nColumn )
+    {
+        return ( nColumn < _strLineDataArray.length ) ? _strLineDataArray[nColumn] : null;
+    }
+
+    /**
+     * @return the line number
+     */
+    int getLineNumber(  )
+    {
+        return _nLineNumber;
+    }
+
+    /**
+     * @return the messages of the line, which can be added to
+     */
+    List<CSVMessageDescriptor> getMessages(  )
+    {
+        return _listMessages;
+    }
+
+    /**
+     * @return true if an error message has been reported for the line
+     */
+    boolean hasErrors(  )
+    {
+        for ( CSVMessageDescriptor message : _listMessages )
+        {
+            if ( message.getMessageLevel(  ) == CSVMessageLevel.ERROR )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the WSSO GUIDs of the directory entries matching the email of the line
+     */
+    List<String> getGuids(  )
+    {
+        return _listGuids;
+    }
+
+    /**
+     * @param listGuids the WSSO GUIDs of the directory entries matching the email of the line
+     */
+    void setGuids( List<String> listGuids )
+    {
+        _listGuids = listGuids;
+    }
+
+    /**
+     * @return what the database stage has done with the line
+     */
+    int getOutcome(  )
+    {
+        return _nOutcome;
+    }
+
+    /**
+     * @param nOutcome what the database stage has done with the line
+     */
+    void setOutcome( int nOutcome )
+    {
+        _nOutcome = nOutcome;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the trimmed values of the line, computed once
+     * @return the hash, in hexadecimal
+     */
+    String getContentHash(  )
+    {
+        if ( _strContentHash == null )
+        {
+            StringBuilder sbContent = new StringBuilder(  );
+
+            for ( String strValue : _strLineDataArray )
+            {
+                sbContent.append( ( strValue == null ) ? "" : strValue.trim(  ) ).append( VALUE_SEPARATOR );
+            }
+
+            try
+            {
+                byte[] hash = MessageDigest.getInstance( HASH_ALGORITHM )
+                                           .digest( sbContent.toString(  ).getBytes( StandardCharsets.UTF_8 ) );
+                StringBuilder sbHash = new StringBuilder( hash.length * 2 );
+
+                for ( byte b : hash )
+                {
+                    sbHash.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+                }
+
+                _strContentHash = sbHash.toString(  );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                // Every JVM provides SHA-256
+                throw new IllegalStateException( e );
+            }
+        }
+
+        return _strContentHash;
+    }
+
+    /**
+     * @return true if every stage has been run on the line
+     */
+    boolean isProcessed(  )
+    {
+        return _bProcessed;
+    }
+
+    /**
+     * Marks the line as processed by every stage
+     */
+    void setProcessed(  )
+    {
+        _bProcessed = true;
+    }
+}
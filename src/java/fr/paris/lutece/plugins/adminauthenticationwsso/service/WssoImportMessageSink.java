@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
+import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+
+/**
+ * Collects the messages of a user import without keeping them all in memory :
+ * only the adminauthenticationwsso.import.messages.maxKept messages of the lowest
+ * lines are kept. Once there are more messages, all of them are also written to a
+ * spill file. The progress of the import is logged every
+ * adminauthenticationwsso.import.progressInterval lines.
+ */
+final class WssoImportMessageSink implements Closeable
+{
+    // Properties
+    private static final String PROPERTY_MESSAGES_MAX_KEPT = "adminauthenticationwsso.import.messages.maxKept";
+    private static final String PROPERTY_MESSAGES_SPILL_DIRECTORY = "adminauthenticationwsso.import.messages.spillDirectory";
+    private static final String PROPERTY_PROGRESS_INTERVAL = "adminauthenticationwsso.import.progressInterval";
+
+    // Defaults
+    private static final int DEFAULT_MESSAGES_MAX_KEPT = 1000;
+    private static final int DEFAULT_PROGRESS_INTERVAL = 10000;
+
+    // Messages
+    private static final String MESSAGE_MESSAGES_TRUNCATED = "adminauthenticationwsso.import_users_from_file.messagesTruncated";
+
+    // Constants
+    private static final String SPILL_FILE_PREFIX = "adminauthenticationwsso-import-";
+    private static final String SPILL_FILE_SUFFIX = ".csv";
+    private static final char SPILL_SEPARATOR = ';';
+    private static final Comparator<CSVMessageDescriptor> COMPARATOR_LINE = ( message1, message2 ) -> Integer.compare( message1.getLineNumber(  ),
+            message2.getLineNumber(  ) );
+    private final int _nMaxKept;
+    private final int _nProgressInterval;
+    private final PriorityQueue<CSVMessageDescriptor> _queueKept;
+    private int _nLineCount;
+    private int _nLinesWithoutErrors;
+    private int _nMessageCount;
+    private int _nErrorCount;
+    private Path _pathSpillFile;
+    private Writer _writerSpill;
+
+    /**
+     * Constructor
+     */
+    WssoImportMessageSink(  )
+    {
+        _nMaxKept = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_MESSAGES_MAX_KEPT, DEFAULT_MESSAGES_MAX_KEPT ) );
+        _nProgressInterval = AppPropertiesService.getPropertyInt( PROPERTY_PROGRESS_INTERVAL, DEFAULT_PROGRESS_INTERVAL );
+        // The head is the kept message of the highest line, the first one dropped
+        _queueKept = new PriorityQueue<CSVMessageDescriptor>( _nMaxKept + 1, COMPARATOR_LINE.reversed(  ) );
+    }
+
+    /**
+     * Counts a line once done with, and collects its messages
+     * @param line the line
+     */
+    synchronized void addLine( WssoImportLine line )
+    {
+        _nLineCount++;
+
+        if ( line.isProcessed(  ) && !line.hasErrors(  ) )
+        {
+            _nLinesWithoutErrors++;
+        }
+
+        for ( CSVMessageDescriptor message : line.getMessages(  ) )
+        {
+            addMessage( message );
+        }
+
+        if ( ( _nProgressInterval > 0 ) && ( ( _nLineCount % _nProgressInterval ) == 0 ) )
+        {
+            AppLogService.info( "WSSO user import : " + _nLineCount + " lines processed, " + _nErrorCount + " errors" );
+        }
+    }
+
+    /**
+     * Collects a message
+     * @param message the message
+     */
+    synchronized void addMessage( CSVMessageDescriptor message )
+    {
+        _nMessageCount++;
+
+        if ( message.getMessageLevel(  ) == CSVMessageLevel.ERROR )
+        {
+            _nErrorCount++;
+        }
+
+        if ( _nMessageCount == ( _nMaxKept + 1 ) )
+        {
+            openSpillFile(  );
+        }
+
+        writeToSpillFile( message );
+        _queueKept.offer( message );
+
+        if ( _queueKept.size(  ) > _nMaxKept )
+        {
+            _queueKept.poll(  );
+        }
+    }
+
+    /**
+     * Returns the kept messages, preceded by a notice giving the spill file if
+     * some messages were not kept
+     * @param locale the locale of the notice
+     * @return the messages, sorted by line
+     */
+    synchronized List<CSVMessageDescriptor> getMessages( Locale locale )
+    {
+        List<CSVMessageDescriptor> listMessages = new ArrayList<CSVMessageDescriptor>( _queueKept );
+        Collections.sort( listMessages, COMPARATOR_LINE );
+
+        if ( _nMessageCount > _nMaxKept )
+        {
+            Object[] args = { _nMaxKept, _nMessageCount, ( _pathSpillFile == null ) ? "" : _pathSpillFile.toString(  ) };
+            listMessages.add( 0, new CSVMessageDescriptor( CSVMessageLevel.INFO, 0,
+                    I18nService.getLocalizedString( MESSAGE_MESSAGES_TRUNCATED, args, locale ) ) );
+        }
+
+        return listMessages;
+    }
+
+    /**
+     * @return the number of lines done with
+     */
+    synchronized int getLineCount(  )
+    {
+        return _nLineCount;
+    }
+
+    /**
+     * @return the number of lines processed without error
+     */
+    synchronized int getLinesWithoutErrorsCount(  )
+    {
+        return _nLinesWithoutErrors;
+    }
+
+    /**
+     * @return the number of error messages
+     */
+    synchronized int getErrorCount(  )
+    {
+        return _nErrorCount;
+    }
+
+    /**
+     * Closes the spill file, if any
+     */
+    @Override
+    public synchronized void close(  )
+    {
+        if ( _writerSpill != null )
+        {
+            try
+            {
+                _writerSpill.close(  );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to close the messages file " + _pathSpillFile, e );
+            }
+
+            _writerSpill = null;
+        }
+    }
+
+    /**
+     * Creates the spill file and writes the messages kept so far
+     */
+    private void openSpillFile(  )
+    {
+        String strDirectory = AppPropertiesService.getProperty( PROPERTY_MESSAGES_SPILL_DIRECTORY );
+
+        try
+        {
+            _pathSpillFile = StringUtils.isBlank( strDirectory )
+                ? Files.createTempFile( SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX )
+                : Files.createTempFile( Paths.get( strDirectory ), SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX );
+            _writerSpill = Files.newBufferedWriter( _pathSpillFile, StandardCharsets.UTF_8 );
+            AppLogService.info( "WSSO user import : more than " + _nMaxKept + " messages, all of them are written to " +
+                _pathSpillFile );
+
+            for ( CSVMessageDescriptor message : _queueKept )
+            {
+                writeToSpillFile( message );
+            }
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to create the messages file of the import", e );
+            close(  );
+        }
+    }
+
+    /**
+     * Writes a message to the spill file, if open
+     * @param message the message
+     */
+    private void writeToSpillFile( CSVMessageDescriptor message )
+    {
+        if ( _writerSpill == null )
+        {
+            return;
+        }
+
+        try
+        {
+            _writerSpill.append( String.valueOf( message.getLineNumber(  ) ) ).append( SPILL_SEPARATOR )
+                        .append( String.valueOf( message.getMessageLevel(  ) ) ).append( SPILL_SEPARATOR )
+                        .append( StringUtils.normalizeSpace( message.getMessageContent(  ) ) ).append( '\n' );
+        }
+        catch ( IOException e )
+        {
+            AppLogService.error( "Unable to write to the messages file " + _pathSpillFile, e );
+            close(  );
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoCsvLineParser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoDirectorySession;
+import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
+import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pipelined processing of a user import file. The lines are parsed and checked by
+ * the calling thread, resolved against the directory by the LDAP workers, then
+ * written by the database workers. The stages are connected by bounded queues, so
+ * a slow stage blocks the previous one. The lines are dispatched by email : lines
+ * with the same email always go through the same LDAP worker, then the same
+ * database worker, so they are written in file order. The LDAP workers resolve the
+ * waiting lines in batches, and the lines are handed to a {@link WssoImportMessageSink}
+ * once done with, so that the memory used does not depend on the file size.
+ */
+final class WssoImportPipeline
+{
+    // Properties
+    private static final String PROPERTY_PIPELINE_LDAP_THREADS = "adminauthenticationwsso.import.pipeline.ldapThreads";
+    private static final String PROPERTY_PIPELINE_DB_THREADS = "adminauthenticationwsso.import.pipeline.dbThreads";
+    private static final String PROPERTY_PIPELINE_QUEUE_SIZE = "adminauthenticationwsso.import.pipeline.queueSize";
+
+    // Defaults
+    private static final int DEFAULT_LDAP_THREADS = 4;
+    private static final int DEFAULT_DB_THREADS = 2;
+    private static final int DEFAULT_QUEUE_SIZE = 100;
+    private static final String THREAD_NAME_PREFIX = "adminauthenticationwsso-import-";
+
+    /** Marks the end of the lines in a queue */
+    private static final WssoImportLine END_OF_LINES = new WssoImportLine( new String[0], 0 );
+    private final WssoAdminUserImportService _importService;
+    private final WssoImportSession _session;
+    private final Locale _locale;
+    private final WssoImportContext _importContext;
+    private final WssoImportMessageSink _sink;
+    private final boolean _bExitOnError;
+    private final int _nResolveBatchSize;
+    private final int _nReadBatchSize;
+    private final List<BlockingQueue<WssoImportLine>> _listResolveQueues;
+    private final List<BlockingQueue<WssoImportLine>> _listPersistQueues;
+    private final AtomicInteger _nRunningLdapWorkers;
+    private final AtomicBoolean _bStopped = new AtomicBoolean(  );
+    private final int _nGrantChunkSize;
+
+    /**
+     * Constructor
+     * @param importService the import service running the stages
+     * @param session the import session
+     * @param locale the locale
+     * @param sink the sink of the lines done with
+     * @param bExitOnError true to stop reading the file after the first line in error
+     * @param bStreaming true to look up the previous imports of the lines by batches
+     *        as they are read, instead of relying on the session to load them all
+     */
+    WssoImportPipeline( WssoAdminUserImportService importService, WssoImportSession session, Locale locale,
+        WssoImportMessageSink sink, boolean bExitOnError, boolean bStreaming )
+    {
+        _importService = importService;
+        _session = session;
+        _locale = locale;
+        _importContext = session.getImportContext( locale );
+        _sink = sink;
+        _bExitOnError = bExitOnError;
+        int nLdapThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PIPELINE_LDAP_THREADS,
+                    DEFAULT_LDAP_THREADS ) );
+        _nResolveBatchSize = WssoAdminUserImportService.getLdapBatchSize(  );
+        _nReadBatchSize = bStreaming ? _nResolveBatchSize : 1;
+
+        int nDbThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PIPELINE_DB_THREADS,
+                    DEFAULT_DB_THREADS ) );
+        int nQueueSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PIPELINE_QUEUE_SIZE,
+                    DEFAULT_QUEUE_SIZE ) );
+        _listResolveQueues = new ArrayList<BlockingQueue<WssoImportLine>>( nLdapThreads );
+
+        for ( int i = 0; i < nLdapThreads; i++ )
+        {
+            _listResolveQueues.add( new ArrayBlockingQueue<WssoImportLine>( nQueueSize ) );
+        }
+
+        _listPersistQueues = new ArrayList<BlockingQueue<WssoImportLine>>( nDbThreads );
+
+        for ( int i = 0; i < nDbThreads; i++ )
+        {
+            _listPersistQueues.add( new ArrayBlockingQueue<WssoImportLine>( nQueueSize ) );
+        }
+
+        _nRunningLdapWorkers = new AtomicInteger( nLdapThreads );
+        _nGrantChunkSize = session.getGrantBatch(  ).getChunkSize(  );
+    }
+
+    /**
+     * Processes the lines of a file
+     * @param reader the reader of the file, positioned after the header if any
+     * @param parser the CSV parser
+     * @param nFirstLineNumber the number of the first line read
+     * @throws IOException if the file cannot be read
+     * @throws InterruptedException if the importing thread is interrupted
+     */
+    void run( BufferedReader reader, WssoCsvLineParser parser, int nFirstLineNumber )
+        throws IOException, InterruptedException
+    {
+        CountDownLatch latchWorkers = new CountDownLatch( _listResolveQueues.size(  ) + _listPersistQueues.size(  ) );
+        List<Thread> listWorkers = new ArrayList<Thread>(  );
+
+        for ( int i = 0; i < _listResolveQueues.size(  ); i++ )
+        {
+            final BlockingQueue<WssoImportLine> queue = _listResolveQueues.get( i );
+            listWorkers.add( new Thread( () -> runLdapWorker( queue, latchWorkers ), THREAD_NAME_PREFIX + "ldap-" + i ) );
+        }
+
+        for ( int i = 0; i < _listPersistQueues.size(  ); i++ )
+        {
+            final BlockingQueue<WssoImportLine> queue = _listPersistQueues.get( i );
+            listWorkers.add( new Thread( () -> runDbWorker( queue, latchWorkers ), THREAD_NAME_PREFIX + "db-" + i ) );
+        }
+
+        for ( Thread worker : listWorkers )
+        {
+            worker.setDaemon( true );
+            worker.start(  );
+        }
+
+        try
+        {
+            int nLineNumber = nFirstLineNumber;
+            List<WssoImportLine> listLines = new ArrayList<WssoImportLine>( _nReadBatchSize );
+            String[] strLineDataArray;
+
+            while ( !_bStopped.get(  ) && ( ( strLineDataArray = parser.readNext( reader ) ) != null ) )
+            {
+                listLines.add( new WssoImportLine( strLineDataArray, nLineNumber++ ) );
+
+                if ( listLines.size(  ) >= _nReadBatchSize )
+                {
+                    dispatch( listLines );
+                    listLines.clear(  );
+                }
+            }
+
+            dispatch( listLines );
+        }
+        finally
+        {
+            // Even if interrupted, so that the LDAP workers end and give their contexts back
+            for ( BlockingQueue<WssoImportLine> queue : _listResolveQueues )
+            {
+                putQuietly( queue, END_OF_LINES );
+            }
+
+            awaitQuietly( latchWorkers );
+        }
+    }
+
+    /**
+     * Directory stage : resolves the lines of a queue with a directory session of its
+     * own, taking the waiting lines up to the LDAP batch size at a time
+     * @param queue the queue of the worker
+     * @param latchWorkers the latch counting down the running workers
+     */
+    private void runLdapWorker( BlockingQueue<WssoImportLine> queue, CountDownLatch latchWorkers )
+    {
+        WssoDirectorySession directorySession = new WssoDirectorySession(  );
+        List<WssoImportLine> listBatch = new ArrayList<WssoImportLine>( _nResolveBatchSize );
+
+        try
+        {
+            for ( boolean bEnd = false; !bEnd; )
+            {
+                listBatch.clear(  );
+                listBatch.add( queue.take(  ) );
+                queue.drainTo( listBatch, _nResolveBatchSize - 1 );
+
+                // The end marker is the last element of the queue
+                bEnd = listBatch.get( listBatch.size(  ) - 1 ) == END_OF_LINES;
+
+                if ( bEnd )
+                {
+                    listBatch.remove( listBatch.size(  ) - 1 );
+                }
+
+                if ( !_bStopped.get(  ) && !listBatch.isEmpty(  ) )
+                {
+                    try
+                    {
+                        _importService.resolveLines( _session, listBatch, directorySession );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        for ( WssoImportLine line : listBatch )
+                        {
+                            reportError( line, e );
+                        }
+                    }
+                }
+
+                // The lines are persisted even without GUID, to report them as not found
+                for ( WssoImportLine line : listBatch )
+                {
+                    getQueue( _listPersistQueues, line ).put( line );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+        finally
+        {
+            directorySession.close(  );
+
+            if ( _nRunningLdapWorkers.decrementAndGet(  ) == 0 )
+            {
+                for ( BlockingQueue<WssoImportLine> queuePersist : _listPersistQueues )
+                {
+                    putQuietly( queuePersist, END_OF_LINES );
+                }
+            }
+
+            latchWorkers.countDown(  );
+        }
+    }
+
+    /**
+     * Database stage : writes the resolved lines of a queue
+     * @param queue the queue of the worker
+     * @param latchWorkers the latch counting down the running workers
+     */
+    private void runDbWorker( BlockingQueue<WssoImportLine> queue, CountDownLatch latchWorkers )
+    {
+        WssoUserGrantBatch grantBatch = new WssoUserGrantBatch( _nGrantChunkSize );
+
+        try
+        {
+            for ( WssoImportLine line = queue.take(  ); line != END_OF_LINES; line = queue.take(  ) )
+            {
+                if ( _bStopped.get(  ) )
+                {
+                    complete( line );
+
+                    continue;
+                }
+
+                try
+                {
+                    _importService.persistLine( line, _importContext, grantBatch );
+                }
+                catch ( RuntimeException e )
+                {
+                    reportError( line, e );
+                }
+
+                line.setProcessed(  );
+                _session.recordLine( line, grantBatch );
+                complete( line );
+
+                if ( _bExitOnError && line.hasErrors(  ) )
+                {
+                    _bStopped.set( true );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+        finally
+        {
+            try
+            {
+                grantBatch.flush(  );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( "Error while saving the rights, roles and workgroups of the imported users", e );
+                _session.setGrantErrors(  );
+            }
+
+            latchWorkers.countDown(  );
+        }
+    }
+
+    /**
+     * Hands a line done with to the session and the sink
+     * @param line the line
+     */
+    private void complete( WssoImportLine line )
+    {
+        _session.recordDoneLine( line );
+        _sink.addLine( line );
+    }
+
+    /**
+     * @param listQueues the queues of a stage
+     * @param line a line
+     * @return the queue of the line, chosen by email
+     */
+    private static BlockingQueue<WssoImportLine> getQueue( List<BlockingQueue<WssoImportLine>> listQueues,
+        WssoImportLine line )
+    {
+        String strEmail = line.getValue( WssoAdminUserImportService.CONSTANT_EMAIL_COLUMN );
+        int nHash = ( strEmail == null ) ? 0 : strEmail.toLowerCase( Locale.ROOT ).hashCode(  );
+
+        return listQueues.get( Math.floorMod( nHash, listQueues.size(  ) ) );
+    }
+
+    /**
+     * Reports an unexpected error on a line
+     * @param line the line
+     * @param e the error
+     */
+    private static void reportError( WssoImportLine line, Exception e )
+    {
+        AppLogService.error( "Error while importing the line " + line.getLineNumber(  ), e );
+        line.getMessages(  ).add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, line.getLineNumber(  ),
+                String.valueOf( e.getMessage(  ) ) ) );
+    }
+
+    /**
+     * Checks read lines and hands those to import to the LDAP stage. In streaming
+     * mode, the previous imports of the lines are looked up together first.
+     * @param listLines the lines, in file order
+     * @throws InterruptedException if the importing thread is interrupted
+     */
+    private void dispatch( List<WssoImportLine> listLines )
+        throws InterruptedException
+    {
+        if ( ( _nReadBatchSize > 1 ) && !listLines.isEmpty(  ) )
+        {
+            _session.loadStoredHashes( listLines );
+        }
+
+        for ( WssoImportLine line : listLines )
+        {
+            if ( _bStopped.get(  ) )
+            {
+                // As if the following lines had not been read
+                break;
+            }
+
+            _importService.checkLine( line, _locale );
+
+            if ( _importService.skipUnchangedLine( _session, line ) )
+            {
+                line.setProcessed(  );
+                complete( line );
+            }
+            else if ( !line.hasErrors(  ) )
+            {
+                getQueue( _listResolveQueues, line ).put( line );
+            }
+            else
+            {
+                complete( line );
+
+                if ( _bExitOnError )
+                {
+                    _bStopped.set( true );
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a latch to count down, waiting again if interrupted
+     * @param latch the latch
+     */
+    private static void awaitQuietly( CountDownLatch latch )
+    {
+        boolean bInterrupted = false;
+
+        while ( true )
+        {
+            try
+            {
+                latch.await(  );
+
+                break;
+            }
+            catch ( InterruptedException e )
+            {
+                bInterrupted = true;
+            }
+        }
+
+        if ( bInterrupted )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+
+    /**
+     * Puts an element in a queue, retrying if interrupted
+     * @param queue the queue
+     * @param line the element
+     */
+    private static void putQuietly( BlockingQueue<WssoImportLine> queue, WssoImportLine line )
+    {
+        boolean bInterrupted = false;
+
+        while ( true )
+        {
+            try
+            {
+                queue.put( line );
+
+                break;
+            }
+            catch ( InterruptedException e )
+            {
+                bInterrupted = true;
+            }
+        }
+
+        if ( bInterrupted )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+}
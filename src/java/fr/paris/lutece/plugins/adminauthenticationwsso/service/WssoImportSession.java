@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoImportHashHome;
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoDirectorySession;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * State shared by the lines of a user import file, bound to the importing thread
+ * for the duration of the import
+ */
+final class WssoImportSession
+{
+    private static final ThreadLocal<WssoImportSession> _currentSession = new ThreadLocal<WssoImportSession>(  );
+    private static final String PROPERTY_IMPORT_SKIP_UNCHANGED = "adminauthenticationwsso.import.skipUnchanged";
+    private static final String PROPERTY_IMPORT_GRANT_CHUNK_SIZE = "adminauthenticationwsso.import.grantChunkSize";
+    private static final int DEFAULT_GRANT_CHUNK_SIZE = 50;
+    private final Map<String, List<WssoDirectoryUser>> _mapUsersByEmail = new HashMap<String, List<WssoDirectoryUser>>(  );
+    private final WssoUserGrantBatch _grantBatch = new WssoUserGrantBatch( AppPropertiesService.getPropertyInt( 
+                PROPERTY_IMPORT_GRANT_CHUNK_SIZE, DEFAULT_GRANT_CHUNK_SIZE ) );
+    private final boolean _bSkipUnchanged;
+    private Map<String, String> _mapStoredHashes;
+    private Set<String> _setAdminUserEmails;
+    private final AtomicInteger _nCreatedCount = new AtomicInteger(  );
+    private final AtomicInteger _nUpdatedCount = new AtomicInteger(  );
+    private final AtomicInteger _nSkippedCount = new AtomicInteger(  );
+    private final AtomicInteger _nDoneLineCount = new AtomicInteger(  );
+    private final AtomicInteger _nErrorLineCount = new AtomicInteger(  );
+    private volatile boolean _bGrantErrors;
+    private WssoImportContext _importContext;
+    private final WssoDirectorySession _directorySession = new WssoDirectorySession(  );
+
+    /**
+     * Constructor. The unchanged lines are skipped unless the
+     * adminauthenticationwsso.import.skipUnchanged property is false.
+     */
+    private WssoImportSession(  )
+    {
+        _bSkipUnchanged = AppPropertiesService.getPropertyBoolean( PROPERTY_IMPORT_SKIP_UNCHANGED, true );
+    }
+
+    /**
+     * @return the session of the import running in the current thread, or null
+     */
+    static WssoImportSession getCurrent(  )
+    {
+        return _currentSession.get(  );
+    }
+
+    /**
+     * Binds a new session to the current thread
+     * @return the session
+     */
+    static WssoImportSession open(  )
+    {
+        WssoImportSession session = new WssoImportSession(  );
+        _currentSession.set( session );
+
+        return session;
+    }
+
+    /**
+     * Unbinds the session of the current thread and gives its directory
+     * connection back
+     */
+    static void close(  )
+    {
+        WssoImportSession session = _currentSession.get(  );
+        _currentSession.remove(  );
+
+        if ( session != null )
+        {
+            session._directorySession.close(  );
+        }
+    }
+
+    /**
+     * Records the directory entries resolved for emails
+     * @param mapUsersByEmail the entries by email, in lower case
+     */
+    void addResolvedEmails( Map<String, List<WssoDirectoryUser>> mapUsersByEmail )
+    {
+        _mapUsersByEmail.putAll( mapUsersByEmail );
+    }
+
+    /**
+     * Returns the directory entries resolved for an email
+     * @param strEmail the email
+     * @return the entries whose email starts with the given one, or null if the
+     *         email has not been resolved
+     */
+    List<WssoDirectoryUser> getResolvedUsers( String strEmail )
+    {
+        return ( strEmail == null ) ? null : _mapUsersByEmail.get( strEmail.toLowerCase( Locale.ROOT ) );
+    }
+
+    /**
+     * Loads the content hashes of the previous imports of the emails of some
+     * lines only, instead of all of them, so that the memory used does not depend
+     * on the number of imported users. The lines checked next must be among them.
+     * @param listLines the lines
+     */
+    void loadStoredHashes( List<WssoImportLine> listLines )
+    {
+        if ( _bSkipUnchanged )
+        {
+            Set<String> setEmails = new HashSet<String>(  );
+
+            for ( WssoImportLine line : listLines )
+            {
+                String strEmail = line.getValue( WssoAdminUserImportService.CONSTANT_EMAIL_COLUMN );
+
+                if ( strEmail != null )
+                {
+                    setEmails.add( strEmail.toLowerCase( Locale.ROOT ) );
+                }
+            }
+
+            _mapStoredHashes = WssoImportHashHome.findByEmails( setEmails );
+            _setAdminUserEmails = _mapStoredHashes.isEmpty(  ) ? new HashSet<String>(  )
+                                                               : WssoImportHashHome.findAdminUserEmails( _mapStoredHashes.keySet(  ) );
+        }
+    }
+
+    /**
+     * Checks whether a line is the same as the one of the previous import of its
+     * email, and whether the user still exists. The content hashes of all the
+     * previous imports are loaded on the first call, unless those of the line
+     * have been loaded with {@link #loadStoredHashes(List)}.
+     * @param line the line
+     * @return true if the line can be skipped
+     */
+    boolean isUnchanged( WssoImportLine line )
+    {
+        String strEmail = line.getValue( WssoAdminUserImportService.CONSTANT_EMAIL_COLUMN );
+
+        if ( !_bSkipUnchanged || ( strEmail == null ) )
+        {
+            return false;
+        }
+
+        if ( _mapStoredHashes == null )
+        {
+            _mapStoredHashes = WssoImportHashHome.findAll(  );
+            _setAdminUserEmails = _mapStoredHashes.isEmpty(  ) ? new HashSet<String>(  )
+                                                               : WssoImportHashHome.findAdminUserEmails(  );
+        }
+
+        String strKey = strEmail.toLowerCase( Locale.ROOT );
+
+        return _setAdminUserEmails.contains( strKey ) && line.getContentHash(  ).equals( _mapStoredHashes.get( strKey ) );
+    }
+
+    /**
+     * Counts a skipped line
+     */
+    void recordSkippedLine(  )
+    {
+        _nSkippedCount.incrementAndGet(  );
+    }
+
+    /**
+     * Counts a line once written. If it has no error, its content hash is stored
+     * with the next chunk of grants written by the batch.
+     * @param line the line
+     * @param grantBatch the batch which received the grants of the line
+     */
+    void recordLine( WssoImportLine line, WssoUserGrantBatch grantBatch )
+    {
+        if ( line.getOutcome(  ) == WssoImportLine.OUTCOME_CREATED )
+        {
+            _nCreatedCount.incrementAndGet(  );
+        }
+        else if ( line.getOutcome(  ) == WssoImportLine.OUTCOME_UPDATED )
+        {
+            _nUpdatedCount.incrementAndGet(  );
+        }
+
+        if ( ( line.getOutcome(  ) != WssoImportLine.OUTCOME_NONE ) && !line.hasErrors(  ) )
+        {
+            grantBatch.addImportedHash( line.getValue( WssoAdminUserImportService.CONSTANT_EMAIL_COLUMN )
+                                            .toLowerCase( Locale.ROOT ), line.getContentHash(  ) );
+        }
+    }
+
+    /**
+     * Counts a line done with, whether written, skipped or in error, for the
+     * progress of the import
+     * @param line the line
+     */
+    void recordDoneLine( WssoImportLine line )
+    {
+        _nDoneLineCount.incrementAndGet(  );
+
+        if ( line.hasErrors(  ) )
+        {
+            _nErrorLineCount.incrementAndGet(  );
+        }
+    }
+
+    /**
+     * @return the number of lines done with
+     */
+    int getDoneLineCount(  )
+    {
+        return _nDoneLineCount.get(  );
+    }
+
+    /**
+     * @return the number of lines in error
+     */
+    int getErrorLineCount(  )
+    {
+        return _nErrorLineCount.get(  );
+    }
+
+    /**
+     * @return the number of users created
+     */
+    int getCreatedCount(  )
+    {
+        return _nCreatedCount.get(  );
+    }
+
+    /**
+     * @return the number of users updated
+     */
+    int getUpdatedCount(  )
+    {
+        return _nUpdatedCount.get(  );
+    }
+
+    /**
+     * @return the number of unchanged lines skipped
+     */
+    int getSkippedCount(  )
+    {
+        return _nSkippedCount.get(  );
+    }
+
+    /**
+     * Records that some grants of the imported users could not be saved
+     */
+    void setGrantErrors(  )
+    {
+        _bGrantErrors = true;
+    }
+
+    /**
+     * @return true if some grants of the imported users could not be saved
+     */
+    boolean hasGrantErrors(  )
+    {
+        return _bGrantErrors;
+    }
+
+    /**
+     * @return the batch of the grants of the users imported by the importing thread
+     */
+    WssoUserGrantBatch getGrantBatch(  )
+    {
+        return _grantBatch;
+    }
+
+    /**
+     * Returns the lookups shared by the lines of the import, made on first use
+     * @param locale the locale of the import
+     * @return the import context
+     */
+    synchronized WssoImportContext getImportContext( Locale locale )
+    {
+        if ( ( _importContext == null ) || !_importContext.getLocale(  ).equals( locale ) )
+        {
+            _importContext = new WssoImportContext( locale );
+        }
+
+        return _importContext;
+    }
+
+    /**
+     * @return the directory session of the importing thread
+     */
+    WssoDirectorySession getDirectorySession(  )
+    {
+        return _directorySession;
+    }
+
+    /**
+     * @return the number of resolved emails
+     */
+    int getResolvedEmailCount(  )
+    {
+        return _mapUsersByEmail.size(  );
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.lang.reflect.Method;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Bounded executor of the asynchronous WSSO directory lookups.
+ * The lookups run on virtual threads when the JVM provides them, otherwise on a
+ * fixed pool of daemon threads. A lookup times out after the configured delay,
+ * and a timed out or cancelled lookup interrupts its thread.
+ */
+public final class WssoLdapExecutorService
+{
+    // Properties
+    private static final String PROPERTY_ASYNC_MAX_THREADS = "adminauthenticationwsso.async.maxThreads";
+    private static final String PROPERTY_ASYNC_MAX_QUEUED = "adminauthenticationwsso.async.maxQueued";
+    private static final String PROPERTY_ASYNC_TIMEOUT = "adminauthenticationwsso.async.timeout";
+    private static final String PROPERTY_ASYNC_VIRTUAL_THREADS = "adminauthenticationwsso.async.virtualThreads";
+
+    // Defaults
+    private static final int DEFAULT_MAX_THREADS = 8;
+    private static final int DEFAULT_MAX_QUEUED = 100;
+    private static final long DEFAULT_TIMEOUT = 10000L;
+    private static final String THREAD_NAME_PREFIX = "adminauthenticationwsso-ldap-";
+    private static final String METHOD_NEW_VIRTUAL_THREAD_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+    private static final WssoLdapExecutorService _singleton = new WssoLdapExecutorService(  );
+    private final ExecutorService _executor;
+    private final ScheduledExecutorService _scheduler;
+
+    /** Permits of the lookups submitted and not finished yet */
+    private final Semaphore _semaphoreSubmitted;
+    private final int _nMaxSubmitted;
+
+    /** Permits of the running lookups, null if the executor itself is bounded */
+    private final Semaphore _semaphoreRunning;
+    private final long _lTimeout;
+
+    /**
+     * Private constructor
+     */
+    private WssoLdapExecutorService(  )
+    {
+        int nMaxThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_ASYNC_MAX_THREADS,
+                    DEFAULT_MAX_THREADS ) );
+        int nMaxQueued = Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_ASYNC_MAX_QUEUED,
+                    DEFAULT_MAX_QUEUED ) );
+        _lTimeout = AppPropertiesService.getPropertyLong( PROPERTY_ASYNC_TIMEOUT, DEFAULT_TIMEOUT );
+        _nMaxSubmitted = nMaxThreads + nMaxQueued;
+        _semaphoreSubmitted = new Semaphore( _nMaxSubmitted );
+
+        ExecutorService executor = null;
+
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_ASYNC_VIRTUAL_THREADS, true ) )
+        {
+            executor = createVirtualThreadExecutor(  );
+        }
+
+        if ( executor != null )
+        {
+            _executor = executor;
+            _semaphoreRunning = new Semaphore( nMaxThreads, true );
+        }
+        else
+        {
+            _executor = Executors.newFixedThreadPool( nMaxThreads, new DaemonThreadFactory(  ) );
+            _semaphoreRunning = null;
+        }
+
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory(  ) );
+        scheduler.setRemoveOnCancelPolicy( true );
+        _scheduler = scheduler;
+    }
+
+    /**
+     * Returns the unique instance
+     * @return the executor service
+     */
+    public static WssoLdapExecutorService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Runs a lookup with the default timeout, set by the
+     * adminauthenticationwsso.async.timeout property
+     * @param <T> the result type
+     * @param task the lookup
+     * @return the future result
+     */
+    public <T> CompletableFuture<T> submit( Callable<T> task )
+    {
+        return submit( task, _lTimeout );
+    }
+
+    /**
+     * Runs a lookup. The future fails with a RejectedExecutionException if too
+     * many lookups are pending, and with a TimeoutException after the timeout.
+     * @param <T> the result type
+     * @param task the lookup
+     * @param lTimeout the timeout in milliseconds, 0 for none
+     * @return the future result. Cancelling it interrupts the lookup.
+     */
+    public <T> CompletableFuture<T> submit( Callable<T> task, long lTimeout )
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>(  );
+
+        if ( !_semaphoreSubmitted.tryAcquire(  ) )
+        {
+            future.completeExceptionally( new RejectedExecutionException( 
+                    "Too many pending WSSO directory lookups" ) );
+
+            return future;
+        }
+
+        final Execution<T> execution = new Execution<T>( task, future );
+
+        try
+        {
+            _executor.execute( execution );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            _semaphoreSubmitted.release(  );
+            future.completeExceptionally( e );
+
+            return future;
+        }
+
+        if ( lTimeout > 0 )
+        {
+            final ScheduledFuture<?> timeout = _scheduler.schedule( () -> future.completeExceptionally( 
+                        new TimeoutException( "WSSO directory lookup timed out after " + lTimeout + " ms" ) ),
+                    lTimeout, TimeUnit.MILLISECONDS );
+            future.whenComplete( ( result, exception ) -> timeout.cancel( false ) );
+        }
+
+        future.whenComplete( ( result, exception ) -> 
+        {
+            if ( exception != null )
+            {
+                execution.interrupt(  );
+            }
+        } );
+
+        return future;
+    }
+
+    /**
+     * Cancels a future when a future depending on it is cancelled, which
+     * CompletableFuture does not do by itself
+     * @param <T> the result type of the dependent future
+     * @param dependent the dependent future, returned to the caller
+     * @param source the future it was derived from
+     * @return the dependent future
+     */
+    public static <T> CompletableFuture<T> propagateCancellation( final CompletableFuture<T> dependent,
+        final CompletableFuture<?> source )
+    {
+        dependent.whenComplete( ( result, exception ) -> 
+        {
+            if ( dependent.isCancelled(  ) )
+            {
+                source.cancel( true );
+            }
+        } );
+
+        return dependent;
+    }
+
+    /**
+     * @return the number of lookups submitted and not finished yet
+     */
+    public int getPendingCount(  )
+    {
+        return _nMaxSubmitted - _semaphoreSubmitted.availablePermits(  );
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task
+     * @return the executor, or null if the JVM has no virtual threads
+     */
+    private static ExecutorService createVirtualThreadExecutor(  )
+    {
+        try
+        {
+            Method method = Executors.class.getMethod( METHOD_NEW_VIRTUAL_THREAD_EXECUTOR );
+
+            return (ExecutorService) method.invoke( null );
+        }
+        catch ( NoSuchMethodException e )
+        {
+            return null;
+        }
+        catch ( Exception e )
+        {
+            AppLogService.error( "Unable to create the virtual thread executor of the WSSO directory lookups", e );
+
+            return null;
+        }
+    }
+
+    /**
+     * A submitted lookup
+     * @param <T> the result type
+     */
+    private final class Execution<T> implements Runnable
+    {
+        private final Callable<T> _task;
+        private final CompletableFuture<T> _future;
+        private Thread _thread;
+
+        /**
+         * Constructor
+         * @param task the lookup
+         * @param future the future result
+         */
+        private Execution( Callable<T> task, CompletableFuture<T> future )
+        {
+            _task = task;
+            _future = future;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            try
+            {
+                // Cancelled or timed out while queued
+                if ( _future.isDone(  ) )
+                {
+                    return;
+                }
+
+                synchronized ( this )
+                {
+                    _thread = Thread.currentThread(  );
+                }
+
+                if ( _semaphoreRunning != null )
+                {
+                    _semaphoreRunning.acquire(  );
+                }
+
+                try
+                {
+                    if ( !_future.isDone(  ) )
+                    {
+                        _future.complete( _task.call(  ) );
+                    }
+                }
+                finally
+                {
+                    if ( _semaphoreRunning != null )
+                    {
+                        _semaphoreRunning.release(  );
+                    }
+                }
+            }
+            catch ( Exception e )
+            {
+                _future.completeExceptionally( e );
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    _thread = null;
+
+                    // A pooled thread must not carry the interruption to the next lookup
+                    Thread.interrupted(  );
+                }
+
+                _semaphoreSubmitted.release(  );
+            }
+        }
+
+        /**
+         * Interrupts the thread of the lookup if it is running
+         */
+        private synchronized void interrupt(  )
+        {
+            if ( _thread != null )
+            {
+                _thread.interrupt(  );
+            }
+        }
+    }
+
+    /**
+     * Factory of named daemon threads
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private static final AtomicInteger _nThreadCount = new AtomicInteger(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet(  ) );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * LRU cache of the WSSO directory entries looked up by GUID. GUIDs unknown to the
+ * directory are cached too, with a shorter time to live.
+ */
+public final class WssoUserCacheService
+{
+    // Properties
+    private static final String PROPERTY_CACHE_ENABLED = "adminauthenticationwsso.cache.users.enabled";
+    private static final String PROPERTY_CACHE_MAX_ENTRIES = "adminauthenticationwsso.cache.users.maxEntries";
+    private static final String PROPERTY_CACHE_TIME_TO_LIVE = "adminauthenticationwsso.cache.users.timeToLive";
+    private static final String PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE = "adminauthenticationwsso.cache.users.negativeTimeToLive";
+
+    // Defaults
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_TIME_TO_LIVE = 300L;
+    private static final long DEFAULT_NEGATIVE_TIME_TO_LIVE = 30L;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final WssoUserCacheService _singleton = new WssoUserCacheService(  );
+    private final boolean _bEnabled;
+    private final int _nMaxEntries;
+    private final long _lTimeToLive;
+    private final long _lNegativeTimeToLive;
+    private final Map<String, CacheEntry> _mapEntries;
+    private final AtomicLong _lHits = new AtomicLong(  );
+    private final AtomicLong _lNegativeHits = new AtomicLong(  );
+    private final AtomicLong _lMisses = new AtomicLong(  );
+    private final AtomicLong _lEvictions = new AtomicLong(  );
+    private final AtomicLong _lExpirations = new AtomicLong(  );
+
+    /**
+     * Creates the cache from the plugin properties
+     */
+    private WssoUserCacheService(  )
+    {
+        _bEnabled = AppPropertiesService.getPropertyBoolean( PROPERTY_CACHE_ENABLED, true );
+        _nMaxEntries = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES ) );
+        _lTimeToLive = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyLong( PROPERTY_CACHE_TIME_TO_LIVE,
+                    DEFAULT_TIME_TO_LIVE ) );
+        _lNegativeTimeToLive = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyLong( 
+                    PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE, DEFAULT_NEGATIVE_TIME_TO_LIVE ) );
+        _mapEntries = new LinkedHashMap<String, CacheEntry>( 16, LOAD_FACTOR, true )
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry( Map.Entry<String, CacheEntry> eldest )
+                    {
+                        if ( size(  ) > _nMaxEntries )
+                        {
+                            _lEvictions.incrementAndGet(  );
+
+                            return true;
+                        }
+
+                        return false;
+                    }
+                };
+    }
+
+    /**
+     * Returns the unique instance of the service
+     * @return the service
+     */
+    public static WssoUserCacheService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Returns the directory entry of a GUID, loading it asynchronously on a cache miss
+     * @param strGuid the WSSO GUID
+     * @param loader the loader called on a cache miss
+     * @return the future directory entry, already completed on a cache hit. It
+     *         completes with null if the GUID is unknown.
+     */
+    public CompletableFuture<WssoDirectoryUser> getUserAsync( final String strGuid, AsyncUserLoader loader )
+    {
+        if ( !_bEnabled || ( strGuid == null ) )
+        {
+            return loader.load( strGuid );
+        }
+
+        CacheEntry entry = lookup( strGuid );
+
+        if ( entry != null )
+        {
+            return CompletableFuture.completedFuture( entry.getUser(  ) );
+        }
+
+        CompletableFuture<WssoDirectoryUser> future = loader.load( strGuid );
+
+        return WssoLdapExecutorService.propagateCancellation( future.thenApply( user -> 
+                {
+                    store( strGuid, user );
+
+                    return user;
+                } ), future );
+    }
+
+    /**
+     * Looks up a live entry and updates the statistics
+     * @param strGuid the WSSO GUID
+     * @return the entry, or null on a cache miss
+     */
+    private CacheEntry lookup( String strGuid )
+    {
+        long lNow = System.currentTimeMillis(  );
+
+        synchronized ( _mapEntries )
+        {
+            CacheEntry entry = _mapEntries.get( strGuid );
+
+            if ( entry != null )
+            {
+                if ( entry.getExpiration(  ) > lNow )
+                {
+                    if ( entry.getUser(  ) == null )
+                    {
+                        _lNegativeHits.incrementAndGet(  );
+                    }
+                    else
+                    {
+                        _lHits.incrementAndGet(  );
+                    }
+
+                    return entry;
+                }
+
+                _mapEntries.remove( strGuid );
+                _lExpirations.incrementAndGet(  );
+            }
+        }
+
+        _lMisses.incrementAndGet(  );
+
+        return null;
+    }
+
+    /**
+     * Caches a loaded entry
+     * @param strGuid the WSSO GUID
+     * @param user the directory entry, or null if the GUID is unknown
+     */
+    private void store( String strGuid, WssoDirectoryUser user )
+    {
+        long lExpiration = System.currentTimeMillis(  ) + ( ( user == null ) ? _lNegativeTimeToLive : _lTimeToLive );
+
+        synchronized ( _mapEntries )
+        {
+            _mapEntries.put( strGuid, new CacheEntry( user, lExpiration ) );
+        }
+    }
+
+    /**
+     * Removes an entry from the cache
+     * @param strGuid the WSSO GUID
+     */
+    public void remove( String strGuid )
+    {
+        synchronized ( _mapEntries )
+        {
+            _mapEntries.remove( strGuid );
+        }
+    }
+
+    /**
+     * Removes all the entries from the cache
+     */
+    public void removeAll(  )
+    {
+        synchronized ( _mapEntries )
+        {
+            _mapEntries.clear(  );
+        }
+    }
+
+    /**
+     * Removes the expired entries from the cache
+     */
+    public void removeExpiredEntries(  )
+    {
+        long lNow = System.currentTimeMillis(  );
+
+        synchronized ( _mapEntries )
+        {
+            Iterator<CacheEntry> iterator = _mapEntries.values(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                if ( iterator.next(  ).getExpiration(  ) <= lNow )
+                {
+                    iterator.remove(  );
+                    _lExpirations.incrementAndGet(  );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current number of entries, including the unknown GUIDs
+     */
+    public int getSize(  )
+    {
+        synchronized ( _mapEntries )
+        {
+            return _mapEntries.size(  );
+        }
+    }
+
+    /**
+     * @return the maximum number of entries
+     */
+    public int getMaxEntries(  )
+    {
+        return _nMaxEntries;
+    }
+
+    /**
+     * @return the number of lookups answered with a known user
+     */
+    public long getHitCount(  )
+    {
+        return _lHits.get(  );
+    }
+
+    /**
+     * @return the number of lookups answered with an unknown GUID
+     */
+    public long getNegativeHitCount(  )
+    {
+        return _lNegativeHits.get(  );
+    }
+
+    /**
+     * @return the number of lookups sent to the directory
+     */
+    public long getMissCount(  )
+    {
+        return _lMisses.get(  );
+    }
+
+    /**
+     * @return the number of entries removed because the cache was full
+     */
+    public long getEvictionCount(  )
+    {
+        return _lEvictions.get(  );
+    }
+
+    /**
+     * @return the number of entries removed because they were expired
+     */
+    public long getExpirationCount(  )
+    {
+        return _lExpirations.get(  );
+    }
+
+    /**
+     * Returns the cache statistics in a format suitable for logs
+     * @return the statistics
+     */
+    public String getStatistics(  )
+    {
+        StringBuilder sbStatistics = new StringBuilder(  );
+        sbStatistics.append( "WSSO user cache : size=" ).append( getSize(  ) ).append( '/' ).append( _nMaxEntries );
+        sbStatistics.append( ", hits=" ).append( getHitCount(  ) );
+        sbStatistics.append( ", negativeHits=" ).append( getNegativeHitCount(  ) );
+        sbStatistics.append( ", misses=" ).append( getMissCount(  ) );
+        sbStatistics.append( ", evictions=" ).append( getEvictionCount(  ) );
+        sbStatistics.append( ", expirations=" ).append( getExpirationCount(  ) );
+
+        return sbStatistics.toString(  );
+    }
+
+    /**
+     * Loads a directory entry asynchronously on a cache miss
+     */
+    public interface AsyncUserLoader
+    {
+        /**
+         * Loads the directory entry of a GUID
+         * @param strGuid the WSSO GUID
+         * @return the future directory entry, completed with null if the GUID is unknown
+         */
+        CompletableFuture<WssoDirectoryUser> load( String strGuid );
+    }
+
+    /**
+     * Cached directory entry with its expiration date
+     */
+    private static final class CacheEntry
+    {
+        private final WssoDirectoryUser _user;
+        private final long _lExpiration;
+
+        /**
+         * Constructor
+         * @param user the directory entry, or null for an unknown GUID
+         * @param lExpiration the expiration date in milliseconds
+         */
+        CacheEntry( WssoDirectoryUser user, long lExpiration )
+        {
+            _user = user;
+            _lExpiration = lExpiration;
+        }
+
+        /**
+         * @return the directory entry, or null for an unknown GUID
+         */
+        WssoDirectoryUser getUser(  )
+        {
+            return _user;
+        }
+
+        /**
+         * @return the expiration date in milliseconds
+         */
+        long getExpiration(  )
+        {
+            return _lExpiration;
+        }
+    }
+}
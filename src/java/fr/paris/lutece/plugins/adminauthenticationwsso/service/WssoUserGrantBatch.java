@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoImportHashHome;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoUserGrantHome;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoUserGrants;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Grants of imported users waiting to be written, stored a chunk of users at a time.
+ * The content hashes of the imported lines are stored once the grants written
+ * before them are, so that a line whose grants were not saved is imported again.
+ */
+final class WssoUserGrantBatch
+{
+    private final int _nChunkSize;
+    private final Map<Integer, WssoUserGrants> _mapPendingGrants = new LinkedHashMap<Integer, WssoUserGrants>(  );
+    private final Map<String, String> _mapPendingHashes = new HashMap<String, String>(  );
+
+    /**
+     * Constructor
+     * @param nChunkSize the number of users whose grants are written together
+     */
+    WssoUserGrantBatch( int nChunkSize )
+    {
+        _nChunkSize = Math.max( 1, nChunkSize );
+    }
+
+    /**
+     * @return the number of users whose grants are written together
+     */
+    int getChunkSize(  )
+    {
+        return _nChunkSize;
+    }
+
+    /**
+     * Adds the grants of a user, writing the chunk when it is full. The pending
+     * grants are written first if the user already has some, so that they are
+     * compared with up to date stored grants.
+     * @param grants the grants
+     */
+    void add( WssoUserGrants grants )
+    {
+        if ( _mapPendingGrants.containsKey( grants.getIdUser(  ) ) )
+        {
+            flush(  );
+        }
+
+        _mapPendingGrants.put( grants.getIdUser(  ), grants );
+
+        if ( _mapPendingGrants.size(  ) >= _nChunkSize )
+        {
+            flush(  );
+        }
+    }
+
+    /**
+     * Adds the content hash of an imported line, stored with the next chunk
+     * @param strEmail the email of the line, in lower case
+     * @param strHash the content hash of the line
+     */
+    void addImportedHash( String strEmail, String strHash )
+    {
+        _mapPendingHashes.put( strEmail, strHash );
+    }
+
+    /**
+     * Writes the pending grants, then the pending content hashes. Both are
+     * discarded if the writing of the grants fails.
+     */
+    void flush(  )
+    {
+        try
+        {
+            if ( !_mapPendingGrants.isEmpty(  ) )
+            {
+                try
+                {
+                    WssoUserGrantHome.storeGrants( new ArrayList<WssoUserGrants>( _mapPendingGrants.values(  ) ) );
+                }
+                finally
+                {
+                    _mapPendingGrants.clear(  );
+                }
+            }
+
+            storeImportedHashes(  );
+        }
+        finally
+        {
+            _mapPendingHashes.clear(  );
+        }
+    }
+
+    /**
+     * Stores the pending content hashes
+     */
+    private void storeImportedHashes(  )
+    {
+        try
+        {
+            WssoImportHashHome.store( _mapPendingHashes );
+        }
+        catch ( RuntimeException e )
+        {
+            // The lines will only be imported again next time
+            AppLogService.error( "Unable to store the content hashes of the imported lines", e );
+        }
+    }
+}
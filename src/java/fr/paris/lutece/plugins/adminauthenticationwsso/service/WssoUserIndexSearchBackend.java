@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Search backend using sorted arrays of the upper case last names, first names
+ * and emails. The users are numbered by their rank in the result order, so the
+ * matches of a prefix range are collected in a bit set and read back already sorted.
+ */
+final class WssoUserIndexSearchBackend implements IWssoUserSearchBackend
+{
+    private static final int FIELD_LAST_NAME = 0;
+    private static final int FIELD_FIRST_NAME = 1;
+    private static final int FIELD_EMAIL = 2;
+    private static final int FIELD_COUNT = 3;
+
+    /** The users sorted in result order : the array index is the rank */
+    private final WssoDirectoryUser[] _users;
+
+    /** The upper case values of each field, by rank */
+    private final String[][] _strValuesByRank = new String[FIELD_COUNT][];
+
+    /** The upper case values of each field, sorted */
+    private final String[][] _strSortedValues = new String[FIELD_COUNT][];
+
+    /** The ranks of the sorted values of each field */
+    private final int[][] _nSortedRanks = new int[FIELD_COUNT][];
+
+    /**
+     * Builds the index
+     * @param listUsers the users of the snapshot
+     */
+    WssoUserIndexSearchBackend( Collection<WssoDirectoryUser> listUsers )
+    {
+        _users = listUsers.toArray( new WssoDirectoryUser[listUsers.size(  )] );
+        Arrays.sort( _users, WssoDirectoryUser.COMPARATOR );
+
+        for ( int nField = 0; nField < FIELD_COUNT; nField++ )
+        {
+            String[] strValues = new String[_users.length];
+
+            for ( int nRank = 0; nRank < _users.length; nRank++ )
+            {
+                strValues[nRank] = WssoUserScanSearchBackend.normalize( getValue( _users[nRank], nField ) );
+            }
+
+            Integer[] ranks = new Integer[_users.length];
+
+            for ( int nRank = 0; nRank < ranks.length; nRank++ )
+            {
+                ranks[nRank] = nRank;
+            }
+
+            sortByValue( ranks, strValues );
+
+            String[] strSortedValues = new String[ranks.length];
+            int[] nSortedRanks = new int[ranks.length];
+
+            for ( int i = 0; i < ranks.length; i++ )
+            {
+                nSortedRanks[i] = ranks[i];
+                strSortedValues[i] = strValues[ranks[i]];
+            }
+
+            _strValuesByRank[nField] = strValues;
+            _strSortedValues[nField] = strSortedValues;
+            _nSortedRanks[nField] = nSortedRanks;
+        }
+    }
+
+    /**
+     * Builds the index from the index of the previous snapshot, merging the
+     * changes instead of sorting all the users again
+     * @param index the index of the previous snapshot
+     * @param listRemoved the users of the previous snapshot which are removed or replaced
+     * @param listAdded the new users and the new versions of the replaced users
+     */
+    WssoUserIndexSearchBackend( WssoUserIndexSearchBackend index, Collection<WssoDirectoryUser> listRemoved,
+        Collection<WssoDirectoryUser> listAdded )
+    {
+        Set<WssoDirectoryUser> setRemoved = Collections.newSetFromMap( new IdentityHashMap<WssoDirectoryUser, Boolean>(  ) );
+        setRemoved.addAll( listRemoved );
+
+        WssoDirectoryUser[] addedUsers = listAdded.toArray( new WssoDirectoryUser[listAdded.size(  )] );
+        Arrays.sort( addedUsers, WssoDirectoryUser.COMPARATOR );
+
+        // Merge the sorted users, keeping the new rank of every previous user (-1 if removed) and added user
+        WssoDirectoryUser[] oldUsers = index._users;
+        int[] nNewRanksOfOld = new int[oldUsers.length];
+        int[] nNewRanksOfAdded = new int[addedUsers.length];
+        List<WssoDirectoryUser> listUsers = new ArrayList<WssoDirectoryUser>( oldUsers.length + addedUsers.length );
+        int nAdded = 0;
+
+        for ( int nOldRank = 0; nOldRank < oldUsers.length; nOldRank++ )
+        {
+            if ( setRemoved.contains( oldUsers[nOldRank] ) )
+            {
+                nNewRanksOfOld[nOldRank] = -1;
+            }
+            else
+            {
+                while ( ( nAdded < addedUsers.length ) &&
+                        ( WssoDirectoryUser.COMPARATOR.compare( addedUsers[nAdded], oldUsers[nOldRank] ) < 0 ) )
+                {
+                    nNewRanksOfAdded[nAdded] = listUsers.size(  );
+                    listUsers.add( addedUsers[nAdded++] );
+                }
+
+                nNewRanksOfOld[nOldRank] = listUsers.size(  );
+                listUsers.add( oldUsers[nOldRank] );
+            }
+        }
+
+        while ( nAdded < addedUsers.length )
+        {
+            nNewRanksOfAdded[nAdded] = listUsers.size(  );
+            listUsers.add( addedUsers[nAdded++] );
+        }
+
+        _users = listUsers.toArray( new WssoDirectoryUser[listUsers.size(  )] );
+
+        for ( int nField = 0; nField < FIELD_COUNT; nField++ )
+        {
+            String[] strValues = new String[_users.length];
+            String[] strOldValues = index._strValuesByRank[nField];
+
+            for ( int nOldRank = 0; nOldRank < oldUsers.length; nOldRank++ )
+            {
+                if ( nNewRanksOfOld[nOldRank] >= 0 )
+                {
+                    strValues[nNewRanksOfOld[nOldRank]] = strOldValues[nOldRank];
+                }
+            }
+
+            Integer[] addedRanks = new Integer[addedUsers.length];
+
+            for ( int i = 0; i < addedUsers.length; i++ )
+            {
+                addedRanks[i] = nNewRanksOfAdded[i];
+                strValues[addedRanks[i]] = WssoUserScanSearchBackend.normalize( getValue( addedUsers[i], nField ) );
+            }
+
+            sortByValue( addedRanks, strValues );
+
+            // Merge the sorted values of the previous users left with the sorted values of the added users
+            String[] strOldSortedValues = index._strSortedValues[nField];
+            int[] nOldSortedRanks = index._nSortedRanks[nField];
+            String[] strSortedValues = new String[_users.length];
+            int[] nSortedRanks = new int[_users.length];
+            int nOld = 0;
+            nAdded = 0;
+
+            for ( int i = 0; i < _users.length; i++ )
+            {
+                while ( ( nOld < nOldSortedRanks.length ) && ( nNewRanksOfOld[nOldSortedRanks[nOld]] < 0 ) )
+                {
+                    nOld++;
+                }
+
+                boolean bTakeOld = ( nAdded == addedRanks.length ) ||
+                    ( ( nOld < nOldSortedRanks.length ) &&
+                    ( strOldSortedValues[nOld].compareTo( strValues[addedRanks[nAdded]] ) <= 0 ) );
+                int nRank = bTakeOld ? nNewRanksOfOld[nOldSortedRanks[nOld++]] : addedRanks[nAdded++];
+                nSortedRanks[i] = nRank;
+                strSortedValues[i] = strValues[nRank];
+            }
+
+            _strValuesByRank[nField] = strValues;
+            _strSortedValues[nField] = strSortedValues;
+            _nSortedRanks[nField] = nSortedRanks;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<WssoDirectoryUser> findUsers( String strLastName, String strFirstName, String strEmail )
+    {
+        String[] strPrefixes = 
+            {
+                WssoUserScanSearchBackend.normalize( strLastName ),
+                WssoUserScanSearchBackend.normalize( strFirstName ),
+                WssoUserScanSearchBackend.normalize( strEmail )
+            };
+
+        // Use the narrowest prefix range, the other prefixes are checked on each candidate
+        int nBestField = -1;
+        int nBestFrom = 0;
+        int nBestTo = _users.length;
+
+        for ( int nField = 0; nField < FIELD_COUNT; nField++ )
+        {
+            if ( !strPrefixes[nField].isEmpty(  ) )
+            {
+                int nFrom = bound( _strSortedValues[nField], strPrefixes[nField], false );
+                int nTo = bound( _strSortedValues[nField], strPrefixes[nField], true );
+
+                if ( ( nTo - nFrom ) < ( nBestTo - nBestFrom ) || ( nBestField < 0 ) )
+                {
+                    nBestField = nField;
+                    nBestFrom = nFrom;
+                    nBestTo = nTo;
+                }
+            }
+        }
+
+        if ( nBestField < 0 )
+        {
+            return Collections.unmodifiableList( Arrays.asList( _users ) );
+        }
+
+        BitSet ranks = new BitSet( _users.length );
+
+        for ( int i = nBestFrom; i < nBestTo; i++ )
+        {
+            int nRank = _nSortedRanks[nBestField][i];
+
+            if ( matches( nRank, strPrefixes ) )
+            {
+                ranks.set( nRank );
+            }
+        }
+
+        List<WssoDirectoryUser> listUsers = new ArrayList<WssoDirectoryUser>( ranks.cardinality(  ) );
+
+        for ( int nRank = ranks.nextSetBit( 0 ); nRank >= 0; nRank = ranks.nextSetBit( nRank + 1 ) )
+        {
+            listUsers.add( _users[nRank] );
+        }
+
+        return listUsers;
+    }
+
+    /**
+     * Checks the prefixes of a user
+     * @param nRank the rank of the user
+     * @param strPrefixes the prefixes by field
+     * @return true if every field starts with its prefix
+     */
+    private boolean matches( int nRank, String[] strPrefixes )
+    {
+        for ( int nField = 0; nField < FIELD_COUNT; nField++ )
+        {
+            if ( !_strValuesByRank[nField][nRank].startsWith( strPrefixes[nField] ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Binary search of the bounds of the values starting with a prefix
+     * @param strSortedValues the sorted values
+     * @param strPrefix the prefix
+     * @param bUpper false for the first value starting with the prefix, true for
+     *        the first value after them
+     * @return the bound index
+     */
+    private static int bound( String[] strSortedValues, String strPrefix, boolean bUpper )
+    {
+        int nLow = 0;
+        int nHigh = strSortedValues.length;
+
+        while ( nLow < nHigh )
+        {
+            int nMiddle = ( nLow + nHigh ) >>> 1;
+            String strValue = strSortedValues[nMiddle];
+            int nCompare = strValue.startsWith( strPrefix ) ? 0 : strValue.compareTo( strPrefix );
+
+            if ( ( nCompare < 0 ) || ( bUpper && ( nCompare == 0 ) ) )
+            {
+                nLow = nMiddle + 1;
+            }
+            else
+            {
+                nHigh = nMiddle;
+            }
+        }
+
+        return nLow;
+    }
+
+    /**
+     * Sorts ranks by the value of a field
+     * @param ranks the ranks to sort
+     * @param strValues the values of the field, by rank
+     */
+    private static void sortByValue( Integer[] ranks, final String[] strValues )
+    {
+        Arrays.sort( ranks, new Comparator<Integer>(  )
+            {
+                public int compare( Integer nRank1, Integer nRank2 )
+                {
+                    return strValues[nRank1].compareTo( strValues[nRank2] );
+                }
+            } );
+    }
+
+    /**
+     * @param user a user
+     * @param nField a field
+     * @return the value of the field
+     */
+    private static String getValue( WssoDirectoryUser user, int nField )
+    {
+        switch ( nField )
+        {
+            case FIELD_LAST_NAME:
+                return user.getLastName(  );
+
+            case FIELD_FIRST_NAME:
+                return user.getFirstName(  );
+
+            default:
+                return user.getEmail(  );
+        }
+    }
+}
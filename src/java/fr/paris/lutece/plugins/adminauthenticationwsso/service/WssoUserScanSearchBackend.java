@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Search backend scanning every user of the snapshot
+ */
+final class WssoUserScanSearchBackend implements IWssoUserSearchBackend
+{
+    private final Collection<WssoDirectoryUser> _listUsers;
+
+    /**
+     * Constructor
+     * @param listUsers the users of the snapshot
+     */
+    WssoUserScanSearchBackend( Collection<WssoDirectoryUser> listUsers )
+    {
+        _listUsers = listUsers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<WssoDirectoryUser> findUsers( String strLastName, String strFirstName, String strEmail )
+    {
+        String strLastNamePrefix = normalize( strLastName );
+        String strFirstNamePrefix = normalize( strFirstName );
+        String strEmailPrefix = normalize( strEmail );
+        List<WssoDirectoryUser> listUsers = new ArrayList<WssoDirectoryUser>(  );
+
+        for ( WssoDirectoryUser user : _listUsers )
+        {
+            if ( normalize( user.getLastName(  ) ).startsWith( strLastNamePrefix ) &&
+                    normalize( user.getFirstName(  ) ).startsWith( strFirstNamePrefix ) &&
+                    normalize( user.getEmail(  ) ).startsWith( strEmailPrefix ) )
+            {
+                listUsers.add( user );
+            }
+        }
+
+        Collections.sort( listUsers, WssoDirectoryUser.COMPARATOR );
+
+        return listUsers;
+    }
+
+    /**
+     * @param strValue a value, possibly null
+     * @return the value in upper case, or an empty string
+     */
+    static String normalize( String strValue )
+    {
+        return ( strValue == null ) ? "" : strValue.toUpperCase( Locale.ROOT );
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * File written through a temporary file of the same directory, then published
+ * in a single step : the temporary file is synced to the disk and renamed over
+ * the file with an atomic move. A reader sees either the previous content or the
+ * new one, never a missing or partial file, even after a crash.
+ * The file is abandoned if it is closed without being committed.
+ */
+public final class WssoAtomicFile implements Closeable
+{
+    private static final String TEMP_FILE_PREFIX = ".";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String CHECKSUM_FILE_EXTENSION = ".sha256";
+    private static final String CHECKSUM_ALGORITHM = "SHA-256";
+    private static final String CHECKSUM_SEPARATOR = "  ";
+    private static final String GENERATION_SEPARATOR = ".";
+    private final File _file;
+    private final File _fileTemp;
+    private final FileOutputStream _outputStream;
+    private final MessageDigest _digest;
+    private final Writer _writer;
+    private boolean _bClosed;
+
+    /**
+     * Constructor. Creates the temporary file.
+     * @param file the file
+     * @throws IOException if the temporary file cannot be created
+     */
+    public WssoAtomicFile( File file ) throws IOException
+    {
+        try
+        {
+            _digest = MessageDigest.getInstance( CHECKSUM_ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( e );
+        }
+
+        _file = file.getAbsoluteFile(  );
+        _fileTemp = File.createTempFile( TEMP_FILE_PREFIX + _file.getName(  ) + GENERATION_SEPARATOR, TEMP_FILE_SUFFIX,
+                _file.getParentFile(  ) );
+        _outputStream = new FileOutputStream( _fileTemp );
+        _writer = new BufferedWriter( new OutputStreamWriter( new DigestOutputStream( _outputStream, _digest ),
+                    StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * @return the writer of the new content, in UTF-8
+     */
+    public Writer getWriter(  )
+    {
+        return _writer;
+    }
+
+    /**
+     * Publishes the new content
+     * @throws IOException if the content cannot be written or published. The file is left as it was.
+     */
+    public void commit(  ) throws IOException
+    {
+        commit( 0, false );
+    }
+
+    /**
+     * Publishes the new content
+     * @param nGenerations the number of previous contents to keep, as &lt;file&gt;.1 (the last one) to &lt;file&gt;.N
+     * @param bChecksum true to publish as well the SHA-256 checksum of the content in &lt;file&gt;.sha256,
+     *        in the sha256sum format. It is published after the content.
+     * @throws IOException if the content cannot be written or published. The file is left as it was.
+     */
+    public void commit( int nGenerations, boolean bChecksum )
+        throws IOException
+    {
+        _writer.flush(  );
+        _outputStream.getFD(  ).sync(  );
+        _writer.close(  );
+        _bClosed = true;
+
+        if ( ( nGenerations > 0 ) && _file.exists(  ) )
+        {
+            keepGeneration( nGenerations );
+        }
+
+        replace( _fileTemp, _file );
+
+        if ( bChecksum )
+        {
+            StringBuilder sbChecksum = new StringBuilder(  );
+
+            for ( byte b : _digest.digest(  ) )
+            {
+                sbChecksum.append( String.format( "%02x", b ) );
+            }
+
+            sbChecksum.append( CHECKSUM_SEPARATOR ).append( _file.getName(  ) ).append( '\n' );
+            write( new File( _file.getPath(  ) + CHECKSUM_FILE_EXTENSION ), sbChecksum.toString(  ) );
+        }
+    }
+
+    /**
+     * Abandons the new content if it was not committed
+     */
+    @Override
+    public void close(  )
+    {
+        if ( !_bClosed )
+        {
+            _bClosed = true;
+
+            try
+            {
+                _writer.close(  );
+            }
+            catch ( IOException e )
+            {
+                AppLogService.error( "Unable to close the temporary file " + _fileTemp, e );
+            }
+        }
+
+        if ( _fileTemp.exists(  ) && !_fileTemp.delete(  ) )
+        {
+            AppLogService.error( "Unable to delete the temporary file " + _fileTemp );
+        }
+    }
+
+    /**
+     * Shifts the previous contents and copies the current one to &lt;file&gt;.1
+     * @param nGenerations the number of previous contents to keep
+     * @throws IOException if a previous content cannot be kept
+     */
+    private void keepGeneration( int nGenerations ) throws IOException
+    {
+        for ( int nGeneration = nGenerations - 1; nGeneration > 0; nGeneration-- )
+        {
+            File fileGeneration = getGenerationFile( nGeneration );
+
+            if ( fileGeneration.exists(  ) )
+            {
+                Files.move( fileGeneration.toPath(  ), getGenerationFile( nGeneration + 1 ).toPath(  ),
+                    StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+
+        // Copied, so that the file itself never disappears
+        Files.copy( _file.toPath(  ), getGenerationFile( 1 ).toPath(  ), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * @param nGeneration the generation number
+     * @return the file of a previous content
+     */
+    private File getGenerationFile( int nGeneration )
+    {
+        return new File( _file.getPath(  ) + GENERATION_SEPARATOR + nGeneration );
+    }
+
+    /**
+     * Writes a small file atomically
+     * @param file the file
+     * @param strContent the content
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( File file, String strContent )
+        throws IOException
+    {
+        try ( WssoAtomicFile atomicFile = new WssoAtomicFile( file ) )
+        {
+            atomicFile.getWriter(  ).write( strContent );
+            atomicFile.commit(  );
+        }
+    }
+
+    /**
+     * Replaces a file by another file of the same directory with an atomic move,
+     * then syncs the directory so that the rename survives a crash. When the file
+     * system cannot move atomically, the file is replaced by a plain move.
+     * @param fileSource the new file, already synced to the disk
+     * @param fileTarget the replaced file
+     * @throws IOException if the file cannot be replaced
+     */
+    public static void replace( File fileSource, File fileTarget )
+        throws IOException
+    {
+        try
+        {
+            Files.move( fileSource.toPath(  ), fileTarget.toPath(  ), StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( AtomicMoveNotSupportedException e )
+        {
+            AppLogService.error( "Atomic moves are not supported, " + fileTarget + " is replaced by a plain move" );
+            Files.move( fileSource.toPath(  ), fileTarget.toPath(  ), StandardCopyOption.REPLACE_EXISTING );
+        }
+
+        try ( FileChannel channel = FileChannel.open( fileTarget.getAbsoluteFile(  ).getParentFile(  ).toPath(  ),
+                        StandardOpenOption.READ ) )
+        {
+            channel.force( true );
+        }
+        catch ( IOException e )
+        {
+            // Directories cannot be synced on every platform
+            AppLogService.debug( "Unable to sync the directory of " + fileTarget + " : " + e.getMessage(  ) );
+        }
+    }
+}
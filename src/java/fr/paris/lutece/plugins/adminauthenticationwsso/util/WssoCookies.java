@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * Values of the WSSO cookies of a request, read in a single pass over the cookies.
+ * The cookie names are resolved once from the properties into a lookup table,
+ * which is rebuilt only when the properties have been reloaded.
+ */
+public final class WssoCookies
+{
+    // Properties
+    private static final String PROPERTY_COOKIE_AUTHENTIFICATION = "adminauthenticationwsso.cookie.authenticationMode"; // mode d'authentification, login/pwd ou certificat
+    private static final String PROPERTY_COOKIE_WSSOGUID = "adminauthenticationwsso.cookie.wssoguid"; // L'identifiant hexa unique de l'utilisateur
+    private static final String PROPERTY_COOKIE_LASTNAME = "adminauthenticationwsso.cookie.lastname"; // Nom de l'utilisateur
+    private static final String PROPERTY_COOKIE_FIRSTNAME = "adminauthenticationwsso.cookie.firstname"; // Prenom de l'utilisateur
+    private static final String PROPERTY_COOKIE_EMAIL = "adminauthenticationwsso.cookie.email"; // Email de l'utilisateur
+
+    // Constants
+    private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private static volatile CookieNameTable _cookieNameTable;
+    private final String[] _strValues = new String[Field.values(  ).length];
+
+    /**
+     * Private constructor
+     */
+    private WssoCookies(  )
+    {
+    }
+
+    /**
+     * Reads the WSSO cookies of a request
+     * @param request the HTTP request
+     * @return the WSSO cookie values, never null
+     */
+    public static WssoCookies read( HttpServletRequest request )
+    {
+        WssoCookies wssoCookies = new WssoCookies(  );
+        Cookie[] cookies = request.getCookies(  );
+
+        if ( cookies != null )
+        {
+            Map<String, Field> mapFields = getCookieNameTable(  ).getFields(  );
+
+            for ( Cookie cookie : cookies )
+            {
+                Field field = mapFields.get( cookie.getName(  ) );
+
+                if ( field != null )
+                {
+                    wssoCookies._strValues[field.ordinal(  )] = cookie.getValue(  );
+                }
+            }
+        }
+
+        return wssoCookies;
+    }
+
+    /**
+     * @return the authentication mode, or null if the cookie is missing
+     */
+    public String getAuthenticationMode(  )
+    {
+        return _strValues[Field.AUTHENTICATION_MODE.ordinal(  )];
+    }
+
+    /**
+     * @return the WSSO GUID, or null if the cookie is missing
+     */
+    public String getGuid(  )
+    {
+        return _strValues[Field.GUID.ordinal(  )];
+    }
+
+    /**
+     * @return the last name, or null if the cookie is missing
+     */
+    public String getLastName(  )
+    {
+        return _strValues[Field.LAST_NAME.ordinal(  )];
+    }
+
+    /**
+     * @return the first name, or null if the cookie is missing
+     */
+    public String getFirstName(  )
+    {
+        return _strValues[Field.FIRST_NAME.ordinal(  )];
+    }
+
+    /**
+     * @return the email, or null if the cookie is missing
+     */
+    public String getEmail(  )
+    {
+        return _strValues[Field.EMAIL.ordinal(  )];
+    }
+
+    /**
+     * Returns a 64 bits fingerprint of the cookies identifying the user : GUID,
+     * last name, first name and email. Two requests carrying the same values have
+     * the same fingerprint.
+     * @return the fingerprint
+     */
+    public long getFingerprint(  )
+    {
+        long lFingerprint = FINGERPRINT_SEED;
+
+        for ( Field field : Field.values(  ) )
+        {
+            if ( field != Field.AUTHENTICATION_MODE )
+            {
+                String strValue = _strValues[field.ordinal(  )];
+                lFingerprint = ( lFingerprint ^ ( ( strValue == null ) ? -1 : strValue.hashCode(  ) ) ) * FINGERPRINT_MULTIPLIER;
+                lFingerprint ^= ( lFingerprint >>> 32 );
+            }
+        }
+
+        return lFingerprint;
+    }
+
+    /**
+     * Returns the cookie name lookup table, rebuilding it if the properties have
+     * been reloaded since it was built. A reload is detected when any of the
+     * cookie names has changed.
+     * @return the lookup table
+     */
+    private static CookieNameTable getCookieNameTable(  )
+    {
+        String[] strCookieNames = new String[Field.values(  ).length];
+
+        for ( Field field : Field.values(  ) )
+        {
+            strCookieNames[field.ordinal(  )] = AppPropertiesService.getProperty( field.getNameProperty(  ) );
+        }
+
+        CookieNameTable table = _cookieNameTable;
+
+        if ( ( table == null ) || !table.isBuiltWith( strCookieNames ) )
+        {
+            table = new CookieNameTable( strCookieNames );
+            _cookieNameTable = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * The WSSO cookies, with their name property
+     */
+    private enum Field
+    {
+        AUTHENTICATION_MODE( PROPERTY_COOKIE_AUTHENTIFICATION ),
+        EMAIL( PROPERTY_COOKIE_EMAIL ),
+        FIRST_NAME( PROPERTY_COOKIE_FIRSTNAME ),
+        LAST_NAME( PROPERTY_COOKIE_LASTNAME ),
+        GUID( PROPERTY_COOKIE_WSSOGUID );
+
+        private final String _strNameProperty;
+
+        /**
+         * Constructor
+         * @param strNameProperty the property holding the cookie name
+         */
+        Field( String strNameProperty )
+        {
+            _strNameProperty = strNameProperty;
+        }
+
+        /**
+         * @return the property holding the cookie name
+         */
+        String getNameProperty(  )
+        {
+            return _strNameProperty;
+        }
+    }
+
+    /**
+     * Immutable lookup table from cookie name to field
+     */
+    private static final class CookieNameTable
+    {
+        private final String[] _strCookieNames;
+        private final Map<String, Field> _mapFields;
+
+        /**
+         * Builds the table from the cookie names. When two fields share a cookie
+         * name, the last one declared in {@link Field} wins.
+         * @param strCookieNames the cookie names read from the properties, by field ordinal
+         */
+        CookieNameTable( String[] strCookieNames )
+        {
+            Map<String, Field> mapFields = new HashMap<String, Field>(  );
+
+            for ( Field field : Field.values(  ) )
+            {
+                String strCookieName = strCookieNames[field.ordinal(  )];
+
+                if ( ( strCookieName != null ) && !strCookieName.isEmpty(  ) )
+                {
+                    mapFields.put( strCookieName, field );
+                }
+            }
+
+            _strCookieNames = strCookieNames;
+            _mapFields = Collections.unmodifiableMap( mapFields );
+        }
+
+        /**
+         * @param strCookieNames the cookie names read from the properties, by field ordinal
+         * @return true if the table was built with these cookie names
+         */
+        boolean isBuiltWith( String[] strCookieNames )
+        {
+            return Arrays.equals( _strCookieNames, strCookieNames );
+        }
+
+        /**
+         * @return the fields by cookie name
+         */
+        Map<String, Field> getFields(  )
+        {
+            return _mapFields;
+        }
+    }
+}
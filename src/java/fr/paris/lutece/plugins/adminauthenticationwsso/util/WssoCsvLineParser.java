@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Splits CSV lines into their values, with the quoting rules of the portal CSV
+ * reader
+ */
+public final class WssoCsvLineParser
+{
+    private static final char QUOTE = '"';
+    private final char _cSeparator;
+    private final char _cEscape;
+
+    /**
+     * Constructor
+     * @param cSeparator the value separator
+     * @param cEscape the escape character
+     */
+    public WssoCsvLineParser( char cSeparator, char cEscape )
+    {
+        _cSeparator = cSeparator;
+        _cEscape = cEscape;
+    }
+
+    /**
+     * Reads the next record of a CSV file. A quoted value may span several lines.
+     * @param reader the reader of the file
+     * @return the values of the record, or null at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    public String[] readNext( BufferedReader reader ) throws IOException
+    {
+        String strLine = reader.readLine(  );
+
+        if ( strLine == null )
+        {
+            return null;
+        }
+
+        List<String> listValues = new ArrayList<String>(  );
+        StringBuilder sbRecord = new StringBuilder( strLine );
+
+        while ( !parse( sbRecord, listValues ) && ( ( strLine = reader.readLine(  ) ) != null ) )
+        {
+            sbRecord.append( '\n' ).append( strLine );
+            listValues.clear(  );
+        }
+
+        return listValues.toArray( new String[listValues.size(  )] );
+    }
+
+    /**
+     * Parses a line
+     * @param strLine the line
+     * @return the values of the line
+     */
+    public String[] parseLine( String strLine )
+    {
+        List<String> listValues = new ArrayList<String>(  );
+        parse( strLine, listValues );
+
+        return listValues.toArray( new String[listValues.size(  )] );
+    }
+
+    /**
+     * Splits a record into its values
+     * @param strRecord the record
+     * @param listValues the list receiving the values
+     * @return false if the record ends inside a quoted value
+     */
+    private boolean parse( CharSequence strRecord, List<String> listValues )
+    {
+        StringBuilder sbValue = new StringBuilder(  );
+        boolean bQuoted = false;
+
+        for ( int i = 0; i < strRecord.length(  ); i++ )
+        {
+            char c = strRecord.charAt( i );
+
+            if ( ( c == _cEscape ) && ( ( i + 1 ) < strRecord.length(  ) ) )
+            {
+                sbValue.append( strRecord.charAt( ++i ) );
+            }
+            else if ( c == QUOTE )
+            {
+                if ( bQuoted && ( ( i + 1 ) < strRecord.length(  ) ) && ( strRecord.charAt( i + 1 ) == QUOTE ) )
+                {
+                    sbValue.append( QUOTE );
+                    i++;
+                }
+                else
+                {
+                    bQuoted = !bQuoted;
+                }
+            }
+            else if ( ( c == _cSeparator ) && !bQuoted )
+            {
+                listValues.add( sbValue.toString(  ) );
+                sbValue.setLength( 0 );
+            }
+            else
+            {
+                sbValue.append( c );
+            }
+        }
+
+        listValues.add( sbValue.toString(  ) );
+
+        return !bQuoted;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.util.WssoLdapContextPool.DirContextCallback;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.Closeable;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+
+/**
+ * Directory connection owned by one user of the directory, such as an import
+ * run, borrowed from the {@link WssoLdapContextPool} on first use and given back
+ * when the session is closed. If the connection is lost, a new one is borrowed
+ * and the failed operation is run again, up to
+ * adminauthenticationwsso.ldap.session.maxRetries times.
+ */
+public final class WssoDirectorySession implements Closeable
+{
+    // Properties
+    private static final String PROPERTY_SESSION_MAX_RETRIES = "adminauthenticationwsso.ldap.session.maxRetries";
+
+    // Defaults
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private final int _nMaxRetries;
+    private DirContext _context;
+
+    /**
+     * Constructor. No connection is borrowed until the session is used.
+     */
+    public WssoDirectorySession(  )
+    {
+        _nMaxRetries = Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_SESSION_MAX_RETRIES, DEFAULT_MAX_RETRIES ) );
+    }
+
+    /**
+     * Runs a callback with the connection of the session
+     * @param callback the callback
+     * @param <T> the result type
+     * @return the callback result
+     * @throws NamingException if the callback fails, or if the connection is
+     *         still lost after the retries
+     */
+    public synchronized <T> T execute( DirContextCallback<T> callback )
+        throws NamingException
+    {
+        WssoLdapContextPool pool = WssoLdapContextPool.getInstance(  );
+
+        for ( int nAttempt = 0;; nAttempt++ )
+        {
+            try
+            {
+                if ( _context == null )
+                {
+                    _context = pool.borrowContext(  );
+                }
+
+                return callback.doInContext( _context );
+            }
+            catch ( CommunicationException e )
+            {
+                pool.invalidateContext( _context );
+                _context = null;
+
+                if ( nAttempt >= _nMaxRetries )
+                {
+                    throw e;
+                }
+
+                AppLogService.info( "LDAP connection lost, reconnecting to " + WssoLdapUtil.getProviderUrl(  ) +
+                    " (retry " + ( nAttempt + 1 ) + " of " + _nMaxRetries + ")" );
+            }
+            catch ( RuntimeException e )
+            {
+                pool.invalidateContext( _context );
+                _context = null;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gives the connection back to the pool. The session can still be used
+     * afterwards, with a new connection.
+     */
+    @Override
+    public synchronized void close(  )
+    {
+        WssoLdapContextPool.getInstance(  ).releaseContext( _context );
+        _context = null;
+    }
+}
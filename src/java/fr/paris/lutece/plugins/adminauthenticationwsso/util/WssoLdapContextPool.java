@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.ldap.LdapUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+
+/**
+ * Bounded pool of LDAP contexts shared by the WSSO authentication and the WSSO import.
+ * Idle contexts are evicted lazily when the pool is used, contexts are validated
+ * on borrow, and a context which raised a CommunicationException is discarded.
+ */
+public final class WssoLdapContextPool
+{
+    // Properties
+    private static final String PROPERTY_POOL_MIN_SIZE = "adminauthenticationwsso.ldap.pool.minSize";
+    private static final String PROPERTY_POOL_MAX_SIZE = "adminauthenticationwsso.ldap.pool.maxSize";
+    private static final String PROPERTY_POOL_MAX_WAIT = "adminauthenticationwsso.ldap.pool.maxWait";
+    private static final String PROPERTY_POOL_IDLE_TIMEOUT = "adminauthenticationwsso.ldap.pool.idleTimeout";
+    private static final String PROPERTY_POOL_VALIDATE_ON_BORROW = "adminauthenticationwsso.ldap.pool.validateOnBorrow";
+
+    // Defaults
+    private static final int DEFAULT_MIN_SIZE = 0;
+    private static final int DEFAULT_MAX_SIZE = 8;
+    private static final long DEFAULT_MAX_WAIT = 5000L;
+    private static final long DEFAULT_IDLE_TIMEOUT = 300L;
+
+    // Constants
+    private static final String ROOT_DSE = "";
+    private static final String AUTHENTICATION_SIMPLE = "simple";
+    private static final String [ ] NO_ATTRIBUTES = { "1.1" };
+
+    private static final WssoLdapContextPool _singleton = new WssoLdapContextPool(  );
+    private final int _nMinSize;
+    private final int _nMaxSize;
+    private final long _lMaxWait;
+    private final long _lIdleTimeout;
+    private final boolean _bValidateOnBorrow;
+    private final Semaphore _permits;
+    private final Deque<PooledContext> _idleContexts = new ArrayDeque<PooledContext>(  );
+    private final Set<DirContext> _borrowedContexts = Collections.newSetFromMap( new IdentityHashMap<DirContext, Boolean>(  ) );
+
+    /**
+     * Creates the pool from the plugin properties
+     */
+    private WssoLdapContextPool(  )
+    {
+        _nMaxSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_POOL_MAX_SIZE, DEFAULT_MAX_SIZE ) );
+        _nMinSize = Math.min( _nMaxSize,
+                Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_POOL_MIN_SIZE, DEFAULT_MIN_SIZE ) ) );
+        _lMaxWait = AppPropertiesService.getPropertyLong( PROPERTY_POOL_MAX_WAIT, DEFAULT_MAX_WAIT );
+        _lIdleTimeout = TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyLong( PROPERTY_POOL_IDLE_TIMEOUT,
+                    DEFAULT_IDLE_TIMEOUT ) );
+        _bValidateOnBorrow = AppPropertiesService.getPropertyBoolean( PROPERTY_POOL_VALIDATE_ON_BORROW, true );
+        _permits = new Semaphore( _nMaxSize, true );
+    }
+
+    /**
+     * Returns the unique instance of the pool
+     * @return the pool
+     */
+    public static WssoLdapContextPool getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Borrows a context from the pool. The context must be given back with
+     * {@link #releaseContext(DirContext)} or {@link #invalidateContext(DirContext)}.
+     * @return a bound LDAP context
+     * @throws NamingException if no context is available within the configured
+     *         wait time or if the connection to the directory fails
+     */
+    public DirContext borrowContext(  ) throws NamingException
+    {
+        acquirePermit(  );
+
+        try
+        {
+            DirContext context = takeIdleContext(  );
+
+            if ( context == null )
+            {
+                context = createContext(  );
+            }
+
+            synchronized ( this )
+            {
+                _borrowedContexts.add( context );
+            }
+
+            return context;
+        }
+        catch ( NamingException e )
+        {
+            _permits.release(  );
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            _permits.release(  );
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a healthy context back to the pool
+     * @param context the context previously borrowed. Null is ignored.
+     */
+    public void releaseContext( DirContext context )
+    {
+        if ( ( context == null ) || !unregister( context ) )
+        {
+            return;
+        }
+
+        synchronized ( this )
+        {
+            _idleContexts.addFirst( new PooledContext( context ) );
+        }
+
+        _permits.release(  );
+        evictIdleContexts(  );
+    }
+
+    /**
+     * Closes a context which must not be reused, typically after a
+     * CommunicationException
+     * @param context the context previously borrowed. Null is ignored.
+     */
+    public void invalidateContext( DirContext context )
+    {
+        if ( ( context == null ) || !unregister( context ) )
+        {
+            return;
+        }
+
+        close( context );
+        _permits.release(  );
+    }
+
+    /**
+     * Runs a callback with a pooled context. If the directory connection is
+     * broken, the context is discarded and the callback is run once more on a
+     * new connection.
+     * @param callback the callback
+     * @param <T> the result type
+     * @return the callback result
+     * @throws NamingException if the callback fails
+     */
+    public <T> T execute( DirContextCallback<T> callback )
+        throws NamingException
+    {
+        DirContext context = borrowContext(  );
+
+        try
+        {
+            T result = callback.doInContext( context );
+            returnContext( context );
+
+            return result;
+        }
+        catch ( CommunicationException e )
+        {
+            invalidateContext( context );
+            AppLogService.info( "LDAP connection lost, reconnecting to " + WssoLdapUtil.getProviderUrl(  ) );
+        }
+        catch ( NamingException e )
+        {
+            if ( e instanceof InterruptedNamingException )
+            {
+                invalidateContext( context );
+            }
+            else
+            {
+                returnContext( context );
+            }
+
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            invalidateContext( context );
+            throw e;
+        }
+
+        context = borrowContext(  );
+
+        try
+        {
+            T result = callback.doInContext( context );
+            returnContext( context );
+
+            return result;
+        }
+        catch ( NamingException e )
+        {
+            invalidateContext( context );
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            invalidateContext( context );
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a context back after a callback. If the thread has been interrupted,
+     * the connection may have been left in the middle of a response, so the
+     * context is discarded rather than reused.
+     * @param context the context
+     */
+    private void returnContext( DirContext context )
+    {
+        if ( Thread.currentThread(  ).isInterrupted(  ) )
+        {
+            invalidateContext( context );
+        }
+        else
+        {
+            releaseContext( context );
+        }
+    }
+
+    /**
+     * Opens a new connection. An LDAP v3 context is created so that request
+     * controls such as the paged results control can be used.
+     * @return the context
+     * @throws NamingException if the connection or the bind fails
+     */
+    private static LdapContext createContext(  ) throws NamingException
+    {
+        Hashtable<String, String> env = new Hashtable<String, String>(  );
+        env.put( Context.INITIAL_CONTEXT_FACTORY, WssoLdapUtil.getInitialContextProvider(  ) );
+        env.put( Context.PROVIDER_URL, WssoLdapUtil.getProviderUrl(  ) );
+
+        String strBindDn = WssoLdapUtil.getBindDn(  );
+
+        if ( ( strBindDn != null ) && !strBindDn.isEmpty(  ) )
+        {
+            env.put( Context.SECURITY_AUTHENTICATION, AUTHENTICATION_SIMPLE );
+            env.put( Context.SECURITY_PRINCIPAL, strBindDn );
+            env.put( Context.SECURITY_CREDENTIALS, WssoLdapUtil.getBindPassword(  ) );
+        }
+
+        return new InitialLdapContext( env, null );
+    }
+
+    /**
+     * Waits for a free slot in the pool
+     * @throws NamingException if the wait time is exceeded
+     */
+    private void acquirePermit(  ) throws NamingException
+    {
+        try
+        {
+            if ( !_permits.tryAcquire( _lMaxWait, TimeUnit.MILLISECONDS ) )
+            {
+                throw new NamingException( "LDAP connection pool exhausted (" + _nMaxSize + " connections in use)" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            throw new NamingException( "Interrupted while waiting for an LDAP connection" );
+        }
+    }
+
+    /**
+     * Takes the most recently used idle context, validating it if required
+     * @return a valid context or null if none is available
+     */
+    private DirContext takeIdleContext(  )
+    {
+        evictIdleContexts(  );
+
+        while ( true )
+        {
+            PooledContext pooledContext;
+
+            synchronized ( this )
+            {
+                pooledContext = _idleContexts.pollFirst(  );
+            }
+
+            if ( pooledContext == null )
+            {
+                return null;
+            }
+
+            if ( !_bValidateOnBorrow || isValid( pooledContext.getContext(  ) ) )
+            {
+                return pooledContext.getContext(  );
+            }
+
+            close( pooledContext.getContext(  ) );
+        }
+    }
+
+    /**
+     * Closes the contexts idle for longer than the idle timeout, keeping at least
+     * the minimum number of contexts. The contexts are closed out of the pool
+     * lock, so that borrowing and releasing do not wait for the directory.
+     */
+    private void evictIdleContexts(  )
+    {
+        long lLimit = System.currentTimeMillis(  ) - _lIdleTimeout;
+        List<PooledContext> listEvicted = new ArrayList<PooledContext>(  );
+
+        synchronized ( this )
+        {
+            Iterator<PooledContext> iterator = _idleContexts.descendingIterator(  );
+
+            while ( iterator.hasNext(  ) && ( _idleContexts.size(  ) > _nMinSize ) )
+            {
+                PooledContext pooledContext = iterator.next(  );
+
+                if ( pooledContext.getLastUse(  ) >= lLimit )
+                {
+                    // The deque is ordered from the most to the least recently used
+                    break;
+                }
+
+                iterator.remove(  );
+                listEvicted.add( pooledContext );
+            }
+        }
+
+        for ( PooledContext pooledContext : listEvicted )
+        {
+            close( pooledContext.getContext(  ) );
+        }
+    }
+
+    /**
+     * Removes a context from the borrowed set
+     * @param context the context
+     * @return true if the context was borrowed from this pool
+     */
+    private synchronized boolean unregister( DirContext context )
+    {
+        return _borrowedContexts.remove( context );
+    }
+
+    /**
+     * Checks that a context is still connected with a minimal request on the root DSE
+     * @param context the context
+     * @return true if the directory answered
+     */
+    private boolean isValid( DirContext context )
+    {
+        try
+        {
+            context.getAttributes( ROOT_DSE, NO_ATTRIBUTES );
+
+            return true;
+        }
+        catch ( NamingException e )
+        {
+            AppLogService.debug( "Discarding stale LDAP connection : " + e.getMessage(  ) );
+
+            return false;
+        }
+    }
+
+    /**
+     * Closes a context, ignoring errors
+     * @param context the context
+     */
+    private static void close( DirContext context )
+    {
+        try
+        {
+            LdapUtil.freeContext( context );
+        }
+        catch ( NamingException e )
+        {
+            AppLogService.debug( "Error while closing LDAP connection : " + e.getMessage(  ) );
+        }
+    }
+
+    /**
+     * Callback run with a pooled context
+     * @param <T> the result type
+     */
+    public interface DirContextCallback<T>
+    {
+        /**
+         * Uses the context
+         * @param context the context, which must not be closed
+         * @return the result
+         * @throws NamingException if an LDAP error occurs
+         */
+        T doInContext( DirContext context ) throws NamingException;
+    }
+
+    /**
+     * Idle context with its last use date
+     */
+    private static final class PooledContext
+    {
+        private final DirContext _context;
+        private final long _lLastUse;
+
+        /**
+         * Constructor
+         * @param context the context
+         */
+        PooledContext( DirContext context )
+        {
+            _context = context;
+            _lLastUse = System.currentTimeMillis(  );
+        }
+
+        /**
+         * @return the context
+         */
+        DirContext getContext(  )
+        {
+            return _context;
+        }
+
+        /**
+         * @return the last use date in milliseconds
+         */
+        long getLastUse(  )
+        {
+            return _lLastUse;
+        }
+    }
+}
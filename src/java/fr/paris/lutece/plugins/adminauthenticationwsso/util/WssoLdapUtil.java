@@ -35,12 +35,20 @@ package fr.paris.lutece.plugins.adminauthenticationwsso.util;
 
 import fr.paris.lutece.plugins.adminauthenticationwsso.AdminWssoAuthentication;
 import fr.paris.lutece.plugins.adminauthenticationwsso.AdminWssoUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoLdapExecutorService;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import fr.paris.lutece.util.ldap.LdapUtil;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.naming.CommunicationException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -49,13 +57,20 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 
 public class WssoLdapUtil
 {
     private static final String CONSTANT_WILDCARD = "*";
+    private static final String CONSTANT_ATTRIBUTE_SEPARATOR = ",";
+    private static final int DEFAULT_PAGE_SIZE = 500;
     
     private static final String PROPERTY_USER_DN_SEARCH_FILTER_BY_CRITERIA = "adminauthenticationwsso.ldap.userSearch.criteria";
+    private static final String PROPERTY_USER_DN_SEARCH_FILTER_BY_EMAIL = "adminauthenticationwsso.ldap.userSearch.email";
     private static final String PROPERTY_INITIAL_CONTEXT_PROVIDER = "adminauthenticationwsso.ldap.initialContextProvider";
     private static final String PROPERTY_PROVIDER_URL = "adminauthenticationwsso.ldap.connectionUrl";
     private static final String PROPERTY_BIND_DN = "adminauthenticationwsso.ldap.connectionName";
@@ -63,21 +78,27 @@ public class WssoLdapUtil
     private static final String PROPERTY_USER_DN_SEARCH_BASE = "adminauthenticationwsso.ldap.userBase";
     private static final String PROPERTY_USER_DN_SEARCH_FILTER_BY_GUID = "adminauthenticationwsso.ldap.userSearch.guid";
     private static final String PROPERTY_USER_SUBTREE = "adminauthenticationwsso.ldap.userSubtree";
+    private static final String PROPERTY_PAGE_SIZE = "adminauthenticationwsso.ldap.pageSize";
     private static final String PROPERTY_DN_ATTRIBUTE_GUID = "adminauthenticationwsso.ldap.dn.attributeName.wssoGuid";
     private static final String PROPERTY_DN_ATTRIBUTE_FAMILY_NAME = "adminauthenticationwsso.ldap.dn.attributeName.familyName";
     private static final String PROPERTY_DN_ATTRIBUTE_GIVEN_NAME = "adminauthenticationwsso.ldap.dn.attributeName.givenName";
     private static final String PROPERTY_DN_ATTRIBUTE_EMAIL = "adminauthenticationwsso.ldap.dn.attributeName.email";
+    private static final String PROPERTY_DN_EXTRA_ATTRIBUTES = "adminauthenticationwsso.ldap.dn.extraAttributes";
     private static final String ATTRIBUTE_GUID = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_GUID );
     private static final String ATTRIBUTE_FAMILY_NAME = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_FAMILY_NAME );
     private static final String ATTRIBUTE_GIVEN_NAME = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_GIVEN_NAME );
     private static final String ATTRIBUTE_EMAIL = AppPropertiesService.getProperty( PROPERTY_DN_ATTRIBUTE_EMAIL );
     
+    /**
+     * Borrows a connection from the WSSO LDAP connection pool. The connection must
+     * be given back with {@link #releaseContext(DirContext)}.
+     * @return the LDAP context, or null if the connection failed
+     */
     public static DirContext getNewContext( )
     {
         try
         {
-           return LdapUtil.getContext( getInitialContextProvider(  ), getProviderUrl(  ), getBindDn(  ),
-                    getBindPassword(  ) ); 
+           return WssoLdapContextPool.getInstance( ).borrowContext( );
         }
         catch( Exception e)
         {
@@ -85,118 +106,566 @@ public class WssoLdapUtil
             return null;
         }
     }
+
+    /**
+     * Gives a connection obtained by {@link #getNewContext()} back to the pool
+     * @param context the LDAP context. Null is ignored.
+     */
+    public static void releaseContext( DirContext context )
+    {
+        WssoLdapContextPool.getInstance( ).releaseContext( context );
+    }
     
     public static List<AdminWssoUser> getWssoUserListFromEmail( DirContext context, String strEmailSearch )
     {
-        ArrayList<AdminWssoUser> userList = new ArrayList<AdminWssoUser>(  );
-        SearchResult sr = null;
+        try
+        {
+            return searchWssoUserListFromEmail( context, strEmailSearch );
+        }
+        catch ( CommunicationException e )
+        {
+            AppLogService.error( "Error while searching for users '" + "' with search filter : " + getUserSearchFilterFromEmail( strEmailSearch ) , e );
+            return new ArrayList<AdminWssoUser>(  );
+        }
+        catch ( NamingException e )
+        {
+            AppLogService.error( "Error while searching for users", e );
+            return new ArrayList<AdminWssoUser>(  );
+        }
+    }
 
-        Object[] messageFormatParam = new Object[3];
+    /**
+     * Searches the users whose email starts with the given value with the
+     * connection of a directory session, reconnecting if the connection is lost
+     * @param directorySession the directory session
+     * @param strEmailSearch the email prefix
+     * @return the users, or an empty list if the search fails
+     */
+    public static List<AdminWssoUser> getWssoUserListFromEmail( WssoDirectorySession directorySession, final String strEmailSearch )
+    {
+        try
+        {
+            return directorySession.execute( context -> searchWssoUserListFromEmail( context, strEmailSearch ) );
+        }
+        catch ( NamingException e )
+        {
+            AppLogService.error( "Error while searching for users with search filter : " + getUserSearchFilterFromEmail( strEmailSearch ), e );
+            return new ArrayList<AdminWssoUser>(  );
+        }
+    }
 
-        messageFormatParam[0] = checkSyntax( "" + CONSTANT_WILDCARD );
-        messageFormatParam[1] = checkSyntax( "" + CONSTANT_WILDCARD );
-        messageFormatParam[2] = checkSyntax( strEmailSearch + CONSTANT_WILDCARD );
-        
-        String strUserSearchFilter = MessageFormat.format( getUserDnSearchFilterByCriteria(  ), messageFormatParam );
+    /**
+     * Searches the users whose email is the given value, ignoring the case, with
+     * the connection of a directory session, reconnecting if the connection is lost
+     * @param directorySession the directory session
+     * @param strEmail the email
+     * @return the users, or an empty list if the search fails
+     */
+    public static List<AdminWssoUser> getWssoUserListFromExactEmail( WssoDirectorySession directorySession, final String strEmail )
+    {
+        final String strUserSearchFilter = getUserSearchFilterFromExactEmail( strEmail );
 
         try
         {
-            SearchControls scUserSearchControls = new SearchControls(  );
-            scUserSearchControls.setSearchScope( getUserDnSearchScope(  ) );
-            scUserSearchControls.setReturningObjFlag( true );
-            scUserSearchControls.setCountLimit( 0 );
+            return directorySession.execute( context -> searchWssoUserList( context, strUserSearchFilter ) );
+        }
+        catch ( NamingException e )
+        {
+            AppLogService.error( "Error while searching for users with search filter : " + strUserSearchFilter, e );
+            return new ArrayList<AdminWssoUser>(  );
+        }
+    }
 
-            NamingEnumeration userResults = LdapUtil.searchUsers( context, strUserSearchFilter, getUserDnSearchBase(  ), "", scUserSearchControls );
+    /**
+     * Searches the users whose email starts with the given value with a pooled
+     * connection, without blocking the calling thread
+     * @param strEmailSearch the email prefix
+     * @return the future users, failing with the LDAP error if the search fails
+     *         or times out. Cancelling it interrupts the search.
+     */
+    public static CompletableFuture<List<AdminWssoUser>> getWssoUserListFromEmailAsync( final String strEmailSearch )
+    {
+        return WssoLdapExecutorService.getInstance(  )
+                                      .submit( () -> WssoLdapContextPool.getInstance(  )
+                                                                        .execute( context -> searchWssoUserListFromEmail( 
+                    context, strEmailSearch ) ) );
+    }
+
+    /**
+     * Searches the users whose email starts with the given value
+     * @param context the LDAP context
+     * @param strEmailSearch the email prefix
+     * @return the users found
+     * @throws NamingException if an LDAP error occurs
+     */
+    private static List<AdminWssoUser> searchWssoUserListFromEmail( DirContext context, String strEmailSearch )
+        throws NamingException
+    {
+        return searchWssoUserList( context, getUserSearchFilterFromEmail( strEmailSearch ) );
+    }
+
+    /**
+     * Searches the users matching a filter
+     * @param context the LDAP context
+     * @param strUserSearchFilter the LDAP search filter
+     * @return the users found
+     * @throws NamingException if an LDAP error occurs
+     */
+    private static List<AdminWssoUser> searchWssoUserList( DirContext context, String strUserSearchFilter )
+        throws NamingException
+    {
+        final ArrayList<AdminWssoUser> userList = new ArrayList<AdminWssoUser>(  );
+        final AdminWssoAuthentication authentication = new AdminWssoAuthentication( );
 
-            AppLogService.debug( AdminWssoUser.class.toString(  ) + " : Search users - Email : " + strUserSearchFilter );
+        AppLogService.debug( AdminWssoUser.class.toString(  ) + " : Search users - Email : " + strUserSearchFilter );
 
-            while ( ( userResults != null ) && userResults.hasMore(  ) )
+        searchUserPages( context, strUserSearchFilter, listUsers -> 
+        {
+            for ( WssoDirectoryUser directoryUser : listUsers )
             {
-                sr = (SearchResult) userResults.next(  );
+                AdminWssoUser user = directoryUser.toAdminWssoUser( authentication );
+                userList.add( user );
+                AppLogService.debug( WssoLdapUtil.class.toString(  ) + " : Result " +
+                        "- LastName : " +  user.getLastName(  ) + 
+                        "- FirstName : " + user.getFirstName(  ) + 
+                        "- Email : " + user.getEmail(  ) );
+            }
 
-                Attributes attributes = sr.getAttributes(  );
+            return true;
+        } );
 
-                //Last Name
-                Attribute attributeLastName = attributes.get( ATTRIBUTE_FAMILY_NAME );
-                String strLastName = "";
+        return userList;
+    }
 
-                if ( attributeLastName != null )
-                {
-                    strLastName = attributes.get( ATTRIBUTE_FAMILY_NAME ).get(  ).toString(  );
-                }
-                else
-                {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " +  strUserSearchFilter  + " - last name is null" );
-                }
+    /**
+     * Searches in a single request the users whose email starts with one of the
+     * given values, as {@link #getWssoUserListFromEmail(DirContext, String)} does
+     * for one value
+     * @param context the LDAP context
+     * @param listEmails the email prefixes, not empty
+     * @return the users found by email prefix, in lower case. Emails without any
+     *         user are mapped to an empty list.
+     * @throws NamingException if an LDAP error occurs
+     */
+    public static Map<String, List<WssoDirectoryUser>> getWssoUsersFromEmails( DirContext context,
+        Collection<String> listEmails ) throws NamingException
+    {
+        return getWssoUsersFromEmails( context, listEmails, false );
+    }
 
-                //First Name
-                Attribute attributeFirstName = attributes.get( ATTRIBUTE_GIVEN_NAME );
-                String strFirstName = "";
+    /**
+     * Searches in a single request the users whose email is, or starts with,
+     * one of the given values
+     * @param context the LDAP context
+     * @param listEmails the emails, not empty
+     * @param bExactMatch true to find the users whose email is one of the values,
+     *        ignoring the case, false to find those whose email starts with one of them
+     * @return the users found by email, in lower case. Emails without any user
+     *         are mapped to an empty list.
+     * @throws NamingException if an LDAP error occurs
+     */
+    public static Map<String, List<WssoDirectoryUser>> getWssoUsersFromEmails( DirContext context,
+        Collection<String> listEmails, final boolean bExactMatch ) throws NamingException
+    {
+        final Map<String, List<WssoDirectoryUser>> mapUsers = new HashMap<String, List<WssoDirectoryUser>>(  );
+        StringBuilder sbFilter = new StringBuilder(  );
 
-                if ( attributeLastName != null )
+        if ( bExactMatch )
+        {
+            sbFilter.append( "(|" );
+        }
+        else
+        {
+            sbFilter.append( "(&" ).append( getUserSearchFilterFromEmail( "" ) ).append( "(|" );
+        }
+
+        for ( String strEmail : listEmails )
+        {
+            String strKey = strEmail.toLowerCase( Locale.ROOT );
+
+            if ( !mapUsers.containsKey( strKey ) )
+            {
+                mapUsers.put( strKey, new ArrayList<WssoDirectoryUser>(  ) );
+
+                if ( bExactMatch )
                 {
-                    strFirstName = attributeFirstName.get(  ).toString(  );
+                    sbFilter.append( getUserSearchFilterFromExactEmail( strEmail ) );
                 }
                 else
                 {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + strUserSearchFilter + " - first name is null" );
+                    sbFilter.append( '(' ).append( ATTRIBUTE_EMAIL ).append( '=' );
+                    escapeFilterValue( sbFilter, strEmail );
+                    sbFilter.append( CONSTANT_WILDCARD ).append( ')' );
                 }
+            }
+        }
 
-                //Email
-                Attribute attributeEmail = attributes.get( ATTRIBUTE_EMAIL );
-                String strEmail = "";
+        sbFilter.append( bExactMatch ? ")" : "))" );
 
-                if ( attributeLastName != null )
-                {
-                    strEmail = attributeEmail.get(  ).toString(  );
-                }
-                else
+        searchUserPages( context, sbFilter.toString(  ),
+            listUsers -> 
+            {
+                for ( WssoDirectoryUser user : listUsers )
                 {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " + strUserSearchFilter + " - e-mail is null" );
+                    String strUserEmail = user.getEmail(  ).toLowerCase( Locale.ROOT );
+
+                    if ( bExactMatch )
+                    {
+                        List<WssoDirectoryUser> listEmailUsers = mapUsers.get( strUserEmail );
+
+                        if ( listEmailUsers != null )
+                        {
+                            listEmailUsers.add( user );
+                        }
+
+                        continue;
+                    }
+
+                    // An entry belongs to every searched email that prefixes its own
+                    for ( int nLength = 1; nLength <= strUserEmail.length(  ); nLength++ )
+                    {
+                        List<WssoDirectoryUser> listEmailUsers = mapUsers.get( strUserEmail.substring( 0, nLength ) );
+
+                        if ( listEmailUsers != null )
+                        {
+                            listEmailUsers.add( user );
+                        }
+                    }
                 }
 
-                //guid
-                Attribute attributeGuId = attributes.get( ATTRIBUTE_GUID );
-                String strWssoId = "";
+                return true;
+            } );
+
+        return mapUsers;
+    }
+
+    /**
+     * Appends a value to an LDAP filter, escaping the special characters (RFC 4515)
+     * @param sbFilter the filter
+     * @param strValue the value
+     */
+    private static void escapeFilterValue( StringBuilder sbFilter, String strValue )
+    {
+        for ( int i = 0; i < strValue.length(  ); i++ )
+        {
+            char c = strValue.charAt( i );
+
+            switch ( c )
+            {
+                case '\\':
+                    sbFilter.append( "\\5c" );
+
+                    break;
+
+                case '*':
+                    sbFilter.append( "\\2a" );
+
+                    break;
+
+                case '(':
+                    sbFilter.append( "\\28" );
+
+                    break;
+
+                case ')':
+                    sbFilter.append( "\\29" );
+
+                    break;
+
+                case '\0':
+                    sbFilter.append( "\\00" );
+
+                    break;
+
+                default:
+                    sbFilter.append( c );
+            }
+        }
+    }
+
+    /**
+     * @param strEmailSearch the email prefix
+     * @return the search filter of the users whose email starts with the prefix
+     */
+    private static String getUserSearchFilterFromEmail( String strEmailSearch )
+    {
+        Object[] messageFormatParam = new Object[3];
+
+        messageFormatParam[0] = checkSyntax( "" + CONSTANT_WILDCARD );
+        messageFormatParam[1] = checkSyntax( "" + CONSTANT_WILDCARD );
+        messageFormatParam[2] = checkSyntax( strEmailSearch + CONSTANT_WILDCARD );
+
+        return MessageFormat.format( getUserDnSearchFilterByCriteria(  ), messageFormatParam );
+    }
+
+    /**
+     * Builds the search filter of the users whose email is the given value. The
+     * adminauthenticationwsso.ldap.userSearch.email filter is used when it is set,
+     * so that the directory can use its equality index on the email attribute.
+     * Otherwise the criteria filter is restricted to the exact email.
+     * @param strEmail the email
+     * @return the search filter
+     */
+    private static String getUserSearchFilterFromExactEmail( String strEmail )
+    {
+        StringBuilder sbEmail = new StringBuilder(  );
+        escapeFilterValue( sbEmail, strEmail );
 
-                if ( attributeGuId != null )
+        String strEmailFilter = getUserDnSearchFilterByEmail(  );
+
+        if ( ( strEmailFilter != null ) && !strEmailFilter.trim(  ).isEmpty(  ) )
+        {
+            return MessageFormat.format( strEmailFilter.trim(  ), sbEmail.toString(  ) );
+        }
+
+        return "(&" + getUserSearchFilterFromEmail( "" ) + "(" + ATTRIBUTE_EMAIL + "=" + sbEmail + "))";
+    }
+
+    /**
+     * Searches the WSSO users with a pooled connection and hands them over one page
+     * at a time, so that the caller never holds the whole result set.
+     * The search is not retried if the connection breaks once pages have been handled.
+     * @param strUserSearchFilter the LDAP search filter
+     * @param handler the page handler
+     * @throws NamingException if an LDAP error occurs
+     */
+    public static void searchUsers( String strUserSearchFilter, IWssoUserPageHandler handler )
+        throws NamingException
+    {
+        WssoLdapContextPool pool = WssoLdapContextPool.getInstance( );
+        DirContext context = pool.borrowContext( );
+
+        try
+        {
+            searchUserPages( context, strUserSearchFilter, handler );
+            pool.releaseContext( context );
+        }
+        catch ( CommunicationException e )
+        {
+            pool.invalidateContext( context );
+            throw e;
+        }
+        catch ( NamingException e )
+        {
+            pool.releaseContext( context );
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            pool.invalidateContext( context );
+            throw e;
+        }
+    }
+
+    /**
+     * Searches the WSSO users using the RFC 2696 paged results control when the
+     * context supports it, so that the directory sends the entries by pages of
+     * the configured size instead of hitting its size limit.
+     * A page size of 0 or less disables the paging.
+     * @param context the LDAP context
+     * @param strUserSearchFilter the LDAP search filter
+     * @param handler the page handler
+     * @throws NamingException if an LDAP error occurs
+     */
+    public static void searchUserPages( DirContext context, String strUserSearchFilter, IWssoUserPageHandler handler )
+        throws NamingException
+    {
+        SearchControls scUserSearchControls = createUserSearchControls(  );
+
+        int nPageSize = AppPropertiesService.getPropertyInt( PROPERTY_PAGE_SIZE, DEFAULT_PAGE_SIZE );
+
+        if ( !( context instanceof LdapContext ) || ( nPageSize <= 0 ) )
+        {
+            NamingEnumeration<SearchResult> userResults = LdapUtil.searchUsers( context, strUserSearchFilter, getUserDnSearchBase(  ), "", scUserSearchControls );
+            handler.handlePage( readUsers( userResults, strUserSearchFilter ) );
+
+            return;
+        }
+
+        LdapContext ldapContext = (LdapContext) context;
+        byte[] cookie = null;
+
+        try
+        {
+            do
+            {
+                ldapContext.setRequestControls( new Control[] { new PagedResultsControl( nPageSize, cookie, Control.NONCRITICAL ) } );
+
+                NamingEnumeration<SearchResult> userResults = LdapUtil.searchUsers( ldapContext, strUserSearchFilter, getUserDnSearchBase(  ), "", scUserSearchControls );
+                List<WssoDirectoryUser> listUsers = readUsers( userResults, strUserSearchFilter );
+                cookie = getPagedResultsCookie( ldapContext.getResponseControls( ) );
+
+                if ( !handler.handlePage( listUsers ) && ( cookie != null ) && ( cookie.length > 0 ) )
                 {
-                    strWssoId = attributeGuId.get(  ).toString(  );
-                    
-                    AdminWssoUser user = null;
-                    user = new AdminWssoUser( strWssoId, new AdminWssoAuthentication( ) );
-                    user.setLastName( strLastName );
-                    user.setFirstName( strFirstName );
-                    user.setEmail( strEmail );
-                    userList.add( user );
-                    AppLogService.debug( WssoLdapUtil.class.toString(  ) + " : Result " +
-                            "- LastName : " +  user.getLastName(  ) + 
-                            "- FirstName : " + user.getFirstName(  ) + 
-                            "- Email : " + user.getEmail(  ) );
+                    // Tell the directory to release the paged search
+                    ldapContext.setRequestControls( new Control[] { new PagedResultsControl( 0, cookie, Control.NONCRITICAL ) } );
+                    LdapUtil.searchUsers( ldapContext, strUserSearchFilter, getUserDnSearchBase(  ), "", scUserSearchControls ).close( );
+                    cookie = null;
                 }
-                else
+            }
+            while ( ( cookie != null ) && ( cookie.length > 0 ) );
+        }
+        catch ( IOException e )
+        {
+            NamingException namingException = new NamingException( "Unable to encode the paged results control" );
+            namingException.setRootCause( e );
+            throw namingException;
+        }
+        finally
+        {
+            ldapContext.setRequestControls( null );
+        }
+    }
+
+    /**
+     * Creates the search controls of the WSSO user searches. Only the GUID, names
+     * and email attributes, plus the extra attributes configured by the
+     * adminauthenticationwsso.ldap.dn.extraAttributes property, are requested,
+     * and no Java object is returned.
+     * @return the search controls
+     */
+    public static SearchControls createUserSearchControls(  )
+    {
+        List<String> listAttributes = new ArrayList<String>(  );
+        listAttributes.add( ATTRIBUTE_GUID );
+        listAttributes.add( ATTRIBUTE_FAMILY_NAME );
+        listAttributes.add( ATTRIBUTE_GIVEN_NAME );
+        listAttributes.add( ATTRIBUTE_EMAIL );
+
+        String strExtraAttributes = AppPropertiesService.getProperty( PROPERTY_DN_EXTRA_ATTRIBUTES );
+
+        if ( strExtraAttributes != null )
+        {
+            for ( String strAttribute : strExtraAttributes.split( CONSTANT_ATTRIBUTE_SEPARATOR ) )
+            {
+                if ( !strAttribute.trim( ).isEmpty( ) && !listAttributes.contains( strAttribute.trim( ) ) )
                 {
-                    AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
-                        "' with search filter : " +  strUserSearchFilter + " - guid is null" );
+                    listAttributes.add( strAttribute.trim( ) );
                 }
             }
-            return userList;
         }
-        catch ( CommunicationException e )
+
+        SearchControls scUserSearchControls = new SearchControls(  );
+        scUserSearchControls.setSearchScope( getUserDnSearchScope(  ) );
+        scUserSearchControls.setReturningObjFlag( false );
+        scUserSearchControls.setReturningAttributes( listAttributes.toArray( new String[listAttributes.size( )] ) );
+        scUserSearchControls.setCountLimit( 0 );
+
+        return scUserSearchControls;
+    }
+
+    /**
+     * Reads the WSSO users of a search result page
+     * @param userResults the search results
+     * @param strUserSearchFilter the search filter, for the logs
+     * @return the users having a GUID
+     * @throws NamingException if an LDAP error occurs
+     */
+    private static List<WssoDirectoryUser> readUsers( NamingEnumeration<SearchResult> userResults, String strUserSearchFilter )
+        throws NamingException
+    {
+        List<WssoDirectoryUser> listUsers = new ArrayList<WssoDirectoryUser>(  );
+
+        while ( ( userResults != null ) && userResults.hasMore(  ) )
         {
-            AppLogService.error( "Error while searching for users '" + "' with search filter : " + strUserSearchFilter , e );
-            return userList;
+            WssoDirectoryUser user = toDirectoryUser( userResults.next(  ).getAttributes(  ), strUserSearchFilter );
+
+            if ( user != null )
+            {
+                listUsers.add( user );
+            }
         }
-        catch ( NamingException e )
+
+        return listUsers;
+    }
+
+    /**
+     * Converts the attributes of a directory entry. Missing names and email are
+     * replaced by empty strings.
+     * @param attributes the entry attributes
+     * @param strUserSearchFilter the search filter, for the logs
+     * @return the user, or null if the entry has no GUID
+     * @throws NamingException if an LDAP error occurs
+     */
+    public static WssoDirectoryUser toDirectoryUser( Attributes attributes, String strUserSearchFilter )
+        throws NamingException
+    {
+        //Last Name
+        Attribute attributeLastName = attributes.get( ATTRIBUTE_FAMILY_NAME );
+        String strLastName = "";
+
+        if ( attributeLastName != null )
         {
-            AppLogService.error( "Error while searching for users", e );
-            return userList;
+            strLastName = attributeLastName.get(  ).toString(  );
+        }
+        else
+        {
+            AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
+                "' with search filter : " +  strUserSearchFilter  + " - last name is null" );
+        }
+
+        //First Name
+        Attribute attributeFirstName = attributes.get( ATTRIBUTE_GIVEN_NAME );
+        String strFirstName = "";
+
+        if ( attributeFirstName != null )
+        {
+            strFirstName = attributeFirstName.get(  ).toString(  );
+        }
+        else
+        {
+            AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
+                "' with search filter : " + strUserSearchFilter + " - first name is null" );
+        }
+
+        //Email
+        Attribute attributeEmail = attributes.get( ATTRIBUTE_EMAIL );
+        String strEmail = "";
+
+        if ( attributeEmail != null )
+        {
+            strEmail = attributeEmail.get(  ).toString(  );
+        }
+        else
+        {
+            AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
+                "' with search filter : " + strUserSearchFilter + " - e-mail is null" );
         }
+
+        //guid
+        Attribute attributeGuId = attributes.get( ATTRIBUTE_GUID );
+
+        if ( attributeGuId == null )
+        {
+            AppLogService.error( "Error while searching for users '" + attributes.toString(  ) +
+                "' with search filter : " +  strUserSearchFilter + " - guid is null" );
+
+            return null;
+        }
+
+        return new WssoDirectoryUser( attributeGuId.get(  ).toString(  ), strLastName, strFirstName, strEmail );
+    }
+
+    /**
+     * Extracts the cookie of the paged results response control
+     * @param controls the response controls
+     * @return the cookie, or null if there is no more page
+     */
+    private static byte[] getPagedResultsCookie( Control[] controls )
+    {
+        if ( controls != null )
+        {
+            for ( Control control : controls )
+            {
+                if ( control instanceof PagedResultsResponseControl )
+                {
+                    return ( (PagedResultsResponseControl) control ).getCookie( );
+                }
+            }
+        }
+
+        return null;
     }
-    
     
     public static String checkSyntax( String in )
     {
@@ -208,6 +677,11 @@ public class WssoLdapUtil
         return AppPropertiesService.getProperty( PROPERTY_USER_DN_SEARCH_FILTER_BY_CRITERIA );
     }
     
+    public static String getUserDnSearchFilterByEmail(  )
+    {
+        return AppPropertiesService.getProperty( PROPERTY_USER_DN_SEARCH_FILTER_BY_EMAIL );
+    }
+
     public static String getInitialContextProvider(  )
     {
         return AppPropertiesService.getProperty( PROPERTY_INITIAL_CONTEXT_PROVIDER );
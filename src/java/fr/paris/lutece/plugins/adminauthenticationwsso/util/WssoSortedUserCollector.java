@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Page handler collecting the users of a search in {@link WssoDirectoryUser#COMPARATOR}
+ * order. When a maximum is set, only the first users are kept, in a bounded heap,
+ * instead of sorting the whole result.
+ */
+public class WssoSortedUserCollector implements IWssoUserPageHandler
+{
+    private static final String PROPERTY_USER_LIST_MAX_RESULTS = "adminauthenticationwsso.userList.maxResults";
+    private final int _nMaxResults;
+    private final List<WssoDirectoryUser> _listUsers;
+
+    /** Heap of the first users, the last one on top */
+    private final PriorityQueue<WssoDirectoryUser> _heapUsers;
+
+    /**
+     * Constructor
+     * @param nMaxResults the number of users to keep, or 0 to keep all of them
+     */
+    public WssoSortedUserCollector( int nMaxResults )
+    {
+        _nMaxResults = nMaxResults;
+
+        if ( nMaxResults > 0 )
+        {
+            _listUsers = null;
+            _heapUsers = new PriorityQueue<WssoDirectoryUser>( nMaxResults + 1,
+                    Collections.reverseOrder( WssoDirectoryUser.COMPARATOR ) );
+        }
+        else
+        {
+            _listUsers = new ArrayList<WssoDirectoryUser>(  );
+            _heapUsers = null;
+        }
+    }
+
+    /**
+     * @return the maximum number of users of the user lists, set by the
+     *         adminauthenticationwsso.userList.maxResults property, or 0 if unlimited
+     */
+    public static int getMaxResults(  )
+    {
+        return Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_USER_LIST_MAX_RESULTS, 0 ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean handlePage( List<WssoDirectoryUser> listUsers )
+    {
+        if ( _heapUsers == null )
+        {
+            _listUsers.addAll( listUsers );
+
+            return true;
+        }
+
+        for ( WssoDirectoryUser user : listUsers )
+        {
+            if ( _heapUsers.size(  ) < _nMaxResults )
+            {
+                _heapUsers.add( user );
+            }
+            else if ( WssoDirectoryUser.COMPARATOR.compare( user, _heapUsers.peek(  ) ) < 0 )
+            {
+                _heapUsers.poll(  );
+                _heapUsers.add( user );
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the collected users, sorted
+     */
+    public List<WssoDirectoryUser> getUsers(  )
+    {
+        if ( _heapUsers == null )
+        {
+            Collections.sort( _listUsers, WssoDirectoryUser.COMPARATOR );
+
+            return _listUsers;
+        }
+
+        WssoDirectoryUser[] users = new WssoDirectoryUser[_heapUsers.size(  )];
+
+        for ( int i = users.length - 1; i >= 0; i-- )
+        {
+            users[i] = _heapUsers.poll(  );
+        }
+
+        List<WssoDirectoryUser> listUsers = new ArrayList<WssoDirectoryUser>( users.length );
+        Collections.addAll( listUsers, users );
+
+        return listUsers;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.web;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoAdminUserImportService;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoImportJob;
+import fr.paris.lutece.plugins.adminauthenticationwsso.service.WssoImportJobService;
+import fr.paris.lutece.portal.service.csv.CSVMessageDescriptor;
+import fr.paris.lutece.portal.service.csv.CSVMessageLevel;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.template.AdminTemplateService;
+import fr.paris.lutece.portal.web.admin.AdminFeaturesPageJspBean;
+import fr.paris.lutece.portal.web.upload.MultipartHttpServletRequest;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * Progress and report of the user imports running in the background, and check
+ * of the import files without importing them
+ */
+public class WssoImportJobJspBean extends AdminFeaturesPageJspBean
+{
+    /** Right of the users management, needed to import users */
+    public static final String RIGHT_USERS_MANAGEMENT = "CORE_USERS_MANAGEMENT";
+    private static final long serialVersionUID = 1L;
+
+    // Parameters
+    private static final String PARAMETER_JOB_ID = "job_id";
+    private static final String PARAMETER_IMPORT_FILE = "import_file";
+    private static final String PARAMETER_IGNORE_FIRST_LINE = "ignore_first_line";
+
+    // Templates
+    private static final String TEMPLATE_IMPORT_JOB_REPORT = "admin/plugins/adminauthenticationwsso/import_wsso_users_job_report.html";
+    private static final String TEMPLATE_VALIDATE_USERS_FILE = "admin/plugins/adminauthenticationwsso/validate_wsso_users_file.html";
+
+    // Messages
+    private static final String MESSAGE_NO_IMPORT_FILE = "adminauthenticationwsso.import_users_from_file.noImportFile";
+
+    // Marks
+    private static final String MARK_CSV_MESSAGES = "csv_messages";
+    private static final String MARK_JOB = "job";
+
+    // Constants
+    private static final String STATUS_UNKNOWN = "UNKNOWN";
+
+    /**
+     * Returns the progress of an import job, in JSON : its status, the number of
+     * lines done with, in error and in the file, the lines per second and the
+     * estimated remaining seconds (-1 if unknown)
+     * @param request the HTTP request, with the job_id parameter
+     * @return the progress of the job
+     */
+    public String getImportJobStatus( HttpServletRequest request )
+    {
+        WssoImportJob job = WssoImportJobService.getInstance(  ).getJob( request.getParameter( PARAMETER_JOB_ID ) );
+
+        if ( job == null )
+        {
+            return "{\"status\":\"" + STATUS_UNKNOWN + "\"}";
+        }
+
+        StringBuilder sbJson = new StringBuilder(  );
+        sbJson.append( "{\"status\":\"" ).append( job.getStatus(  ) );
+        sbJson.append( "\",\"lines\":" ).append( job.getDoneLineCount(  ) );
+        sbJson.append( ",\"totalLines\":" ).append( job.getTotalLineCount(  ) );
+        sbJson.append( ",\"errors\":" ).append( job.getErrorLineCount(  ) );
+        sbJson.append( ",\"linesPerSecond\":" ).append( String.format( Locale.ROOT, "%.1f", job.getLinesPerSecond(  ) ) );
+        sbJson.append( ",\"remainingSeconds\":" ).append( job.getRemainingSeconds(  ) );
+        sbJson.append( '}' );
+
+        return sbJson.toString(  );
+    }
+
+    /**
+     * Returns the messages of a finished import job
+     * @param request the HTTP request, with the job_id parameter
+     * @return the HTML of the messages, empty if the job is unknown or not finished
+     */
+    public String getImportJobReport( HttpServletRequest request )
+    {
+        WssoImportJob job = WssoImportJobService.getInstance(  ).getJob( request.getParameter( PARAMETER_JOB_ID ) );
+
+        if ( ( job == null ) || !job.isFinished(  ) )
+        {
+            return "";
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>(  );
+        model.put( MARK_JOB, job );
+        model.put( MARK_CSV_MESSAGES, job.getMessages(  ) );
+
+        return AdminTemplateService.getTemplate( TEMPLATE_IMPORT_JOB_REPORT, getLocale(  ), model ).getHtml(  );
+    }
+
+    /**
+     * Checks an import file without importing it, and returns the page of its
+     * messages
+     * @param request the multipart HTTP request, with the import_file and
+     *            ignore_first_line parameters of the import form
+     * @return the page
+     */
+    public String getValidateUsersFile( HttpServletRequest request )
+    {
+        FileItem fileItem = ( request instanceof MultipartHttpServletRequest )
+            ? ( (MultipartHttpServletRequest) request ).getFile( PARAMETER_IMPORT_FILE ) : null;
+        List<CSVMessageDescriptor> listMessages;
+
+        if ( ( fileItem == null ) || StringUtils.isBlank( fileItem.getName(  ) ) )
+        {
+            listMessages = new ArrayList<CSVMessageDescriptor>(  );
+            listMessages.add( new CSVMessageDescriptor( CSVMessageLevel.ERROR, 0,
+                    I18nService.getLocalizedString( MESSAGE_NO_IMPORT_FILE, getLocale(  ) ) ) );
+        }
+        else
+        {
+            listMessages = new WssoAdminUserImportService(  ).validateCSVFile( fileItem,
+                    request.getParameter( PARAMETER_IGNORE_FIRST_LINE ) != null, getLocale(  ) );
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>(  );
+        model.put( MARK_CSV_MESSAGES, listMessages );
+
+        return getAdminPage( AdminTemplateService.getTemplate( TEMPLATE_VALIDATE_USERS_FILE, getLocale(  ), model ).getHtml(  ) );
+    }
+}
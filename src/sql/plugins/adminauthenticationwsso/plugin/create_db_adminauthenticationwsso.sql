@@ -0,0 +1,10 @@
+--
+-- Structure for table adminauthenticationwsso_import_hash
+--
+DROP TABLE IF EXISTS adminauthenticationwsso_import_hash;
+CREATE TABLE adminauthenticationwsso_import_hash (
+	email VARCHAR(255) NOT NULL,
+	content_hash VARCHAR(64) NOT NULL,
+	date_import TIMESTAMP NULL,
+	PRIMARY KEY (email)
+);
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.IWssoAccessCodeHandler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Tests of the comparison of the export snapshots
+ */
+public class WssoExportSnapshotTest
+{
+    /**
+     * Handler collecting the GUIDs
+     */
+    private static final class AccessCodeList implements IWssoAccessCodeHandler
+    {
+        private final List<String> _listAccessCodes = new ArrayList<String>(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleAccessCode( String strAccessCode )
+        {
+            _listAccessCodes.add( strAccessCode );
+        }
+    }
+
+    /**
+     * Writes a snapshot
+     * @param strAccessCodes the GUIDs, in ascending order
+     * @return the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    private static File createSnapshot( String... strAccessCodes ) throws IOException
+    {
+        File file = File.createTempFile( "wsso-export", ".snapshot" );
+        file.deleteOnExit(  );
+
+        try ( WssoExportSnapshot snapshot = new WssoExportSnapshot( file ) )
+        {
+            for ( String strAccessCode : strAccessCodes )
+            {
+                snapshot.handleAccessCode( strAccessCode );
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Checks the output of the comparison of two snapshots
+     * @param previous the previous GUIDs
+     * @param current the current GUIDs
+     * @param listAdded the expected added GUIDs
+     * @param listRemoved the expected removed GUIDs
+     * @throws IOException if a snapshot cannot be written or read
+     */
+    private static void checkDiff( String[] previous, String[] current, List<String> listAdded,
+        List<String> listRemoved ) throws IOException
+    {
+        AccessCodeList added = new AccessCodeList(  );
+        AccessCodeList removed = new AccessCodeList(  );
+        WssoExportSnapshot.diff( createSnapshot( previous ), createSnapshot( current ), added, removed );
+
+        Assert.assertEquals( listAdded, added._listAccessCodes );
+        Assert.assertEquals( listRemoved, removed._listAccessCodes );
+    }
+
+    /**
+     * The snapshot is written one GUID per line
+     * @throws IOException if the snapshot cannot be written or read
+     */
+    @Test
+    public void testSnapshotFile(  ) throws IOException
+    {
+        File file = createSnapshot( "a1", "b2", "c3" );
+
+        Assert.assertEquals( Arrays.asList( "a1", "b2", "c3" ), Files.readAllLines( file.toPath(  ), StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Added and removed GUIDs interleaved with the kept ones
+     * @throws IOException if a snapshot cannot be written or read
+     */
+    @Test
+    public void testAddedAndRemoved(  ) throws IOException
+    {
+        checkDiff( new String[] { "a", "c", "d", "f" }, new String[] { "b", "c", "e", "f", "g" },
+            Arrays.asList( "b", "e", "g" ), Arrays.asList( "a", "d" ) );
+    }
+
+    /**
+     * Identical snapshots give no difference
+     * @throws IOException if a snapshot cannot be written or read
+     */
+    @Test
+    public void testUnchanged(  ) throws IOException
+    {
+        checkDiff( new String[] { "a", "b" }, new String[] { "a", "b" }, Collections.<String>emptyList(  ),
+            Collections.<String>emptyList(  ) );
+    }
+
+    /**
+     * The GUIDs left after the end of the other snapshot are reported
+     * @throws IOException if a snapshot cannot be written or read
+     */
+    @Test
+    public void testEmptySnapshots(  ) throws IOException
+    {
+        checkDiff( new String[] {  }, new String[] { "a", "b" }, Arrays.asList( "a", "b" ), Collections.<String>emptyList(  ) );
+        checkDiff( new String[] { "a", "b" }, new String[] {  }, Collections.<String>emptyList(  ), Arrays.asList( "a", "b" ) );
+        checkDiff( new String[] { "a" }, new String[] { "a", "z" }, Arrays.asList( "z" ), Collections.<String>emptyList(  ) );
+        checkDiff( new String[] { "a", "z" }, new String[] { "a" }, Collections.<String>emptyList(  ), Arrays.asList( "z" ) );
+    }
+}
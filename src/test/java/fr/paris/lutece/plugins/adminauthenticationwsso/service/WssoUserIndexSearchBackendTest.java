@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.service;
+
+import fr.paris.lutece.plugins.adminauthenticationwsso.business.WssoDirectoryUser;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Tests of the prefix index of the directory replica
+ */
+public class WssoUserIndexSearchBackendTest
+{
+    private static final WssoDirectoryUser ABEL = new WssoDirectoryUser( "guid-abel", "Abel", "Anne", "anne.abel@paris.fr" );
+    private static final WssoDirectoryUser DUPOND = new WssoDirectoryUser( "guid-dupond", "Dupond", "Marc", "marc.dupond@paris.fr" );
+    private static final WssoDirectoryUser DUPONT = new WssoDirectoryUser( "guid-dupont", "Dupont", "Marie", "marie.dupont@paris.fr" );
+    private static final WssoDirectoryUser DUPONTEL = new WssoDirectoryUser( "guid-dupontel", "Dupontel", "Albert", "albert.dupontel@paris.fr" );
+    private static final WssoDirectoryUser ZOLA = new WssoDirectoryUser( "guid-zola", "Zola", "Emile", "emile.zola@paris.fr" );
+
+    /**
+     * Sorts without the properties service, which is not initialized by the tests
+     */
+    @BeforeClass
+    public static void setUpSortLocale(  )
+    {
+        WssoDirectoryUser.setSortLocale( Locale.FRENCH );
+    }
+
+    /**
+     * @return the index of the test users, given in no particular order
+     */
+    private static WssoUserIndexSearchBackend createIndex(  )
+    {
+        return new WssoUserIndexSearchBackend( Arrays.asList( DUPONT, ZOLA, ABEL, DUPONTEL, DUPOND ) );
+    }
+
+    /**
+     * @param listUsers users
+     * @return the GUIDs of the users
+     */
+    private static List<String> getGuids( List<WssoDirectoryUser> listUsers )
+    {
+        List<String> listGuids = new ArrayList<String>(  );
+
+        for ( WssoDirectoryUser user : listUsers )
+        {
+            listGuids.add( user.getGuid(  ) );
+        }
+
+        return listGuids;
+    }
+
+    /**
+     * The first and last values of the sorted arrays are found
+     */
+    @Test
+    public void testFirstAndLastValues(  )
+    {
+        WssoUserIndexSearchBackend index = createIndex(  );
+
+        Assert.assertEquals( Arrays.asList( "guid-abel" ), getGuids( index.findUsers( "a", "", "" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-zola" ), getGuids( index.findUsers( "zola", "", "" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-abel" ), getGuids( index.findUsers( "", "", "anne" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-dupontel" ), getGuids( index.findUsers( "", "", "albert" ) ) );
+    }
+
+    /**
+     * The prefixes sorted before the first value or after the last one match nothing
+     */
+    @Test
+    public void testPrefixesOutsideTheValues(  )
+    {
+        WssoUserIndexSearchBackend index = createIndex(  );
+
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "aa", "", "" ) );
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "0", "", "" ) );
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "zz", "", "" ) );
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "~", "", "" ) );
+    }
+
+    /**
+     * A prefix matches the values it starts, but not the shorter or neighbouring values
+     */
+    @Test
+    public void testPrefixRange(  )
+    {
+        WssoUserIndexSearchBackend index = createIndex(  );
+
+        Assert.assertEquals( Arrays.asList( "guid-dupond", "guid-dupont", "guid-dupontel" ),
+            getGuids( index.findUsers( "dupon", "", "" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-dupont", "guid-dupontel" ), getGuids( index.findUsers( "DUPONT", "", "" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-dupontel" ), getGuids( index.findUsers( "Duponte", "", "" ) ) );
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "dupontels", "", "" ) );
+        Assert.assertEquals( Arrays.asList( "guid-dupond" ), getGuids( index.findUsers( "dupond", "", "" ) ) );
+    }
+
+    /**
+     * Every prefix must match
+     */
+    @Test
+    public void testSeveralPrefixes(  )
+    {
+        WssoUserIndexSearchBackend index = createIndex(  );
+
+        Assert.assertEquals( Arrays.asList( "guid-dupont" ), getGuids( index.findUsers( "dupon", "mari", "" ) ) );
+        Assert.assertEquals( Arrays.asList( "guid-dupond" ), getGuids( index.findUsers( "dupon", "m", "marc" ) ) );
+        Assert.assertEquals( Collections.emptyList(  ), index.findUsers( "dupon", "emile", "" ) );
+    }
+
+    /**
+     * Without any prefix, every user is returned in result order
+     */
+    @Test
+    public void testNoPrefix(  )
+    {
+        Assert.assertEquals( Arrays.asList( "guid-abel", "guid-dupond", "guid-dupont", "guid-dupontel", "guid-zola" ),
+            getGuids( createIndex(  ).findUsers( "", null, "" ) ) );
+    }
+
+    /**
+     * An index updated with changes answers as an index built from scratch
+     */
+    @Test
+    public void testUpdatedIndex(  )
+    {
+        WssoDirectoryUser dupontMarried = new WssoDirectoryUser( "guid-dupont", "Martin", "Marie", "marie.martin@paris.fr" );
+        WssoDirectoryUser bernard = new WssoDirectoryUser( "guid-bernard", "Bernard", "Paul", "paul.bernard@paris.fr" );
+        WssoUserIndexSearchBackend index = new WssoUserIndexSearchBackend( createIndex(  ), Arrays.asList( DUPONT ),
+                Arrays.asList( dupontMarried, bernard ) );
+        WssoUserIndexSearchBackend indexBuilt = new WssoUserIndexSearchBackend( Arrays.asList( ABEL, DUPOND,
+                    DUPONTEL, ZOLA, dupontMarried, bernard ) );
+
+        for ( String strPrefix : new String[] { "", "a", "b", "dupon", "dupont", "m", "mar", "z", "zz" } )
+        {
+            Assert.assertEquals( getGuids( indexBuilt.findUsers( strPrefix, "", "" ) ),
+                getGuids( index.findUsers( strPrefix, "", "" ) ) );
+            Assert.assertEquals( getGuids( indexBuilt.findUsers( "", strPrefix, "" ) ),
+                getGuids( index.findUsers( "", strPrefix, "" ) ) );
+            Assert.assertEquals( getGuids( indexBuilt.findUsers( "", "", strPrefix ) ),
+                getGuids( index.findUsers( "", "", strPrefix ) ) );
+        }
+
+        Assert.assertEquals( Arrays.asList( "guid-dupond", "guid-dupontel" ), getGuids( index.findUsers( "dupon", "", "" ) ) );
+    }
+}
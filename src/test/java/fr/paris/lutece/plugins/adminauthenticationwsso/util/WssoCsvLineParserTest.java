@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2002-2014, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.adminauthenticationwsso.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+
+/**
+ * Tests of the CSV parser of the user import
+ */
+public class WssoCsvLineParserTest
+{
+    private static final WssoCsvLineParser PARSER = new WssoCsvLineParser( ';', '\\' );
+
+    /**
+     * @param strContent a CSV file content
+     * @return a reader of the content
+     */
+    private static BufferedReader getReader( String strContent )
+    {
+        return new BufferedReader( new StringReader( strContent ) );
+    }
+
+    /**
+     * Plain records, one per line
+     * @throws IOException never
+     */
+    @Test
+    public void testSingleLineRecords(  ) throws IOException
+    {
+        BufferedReader reader = getReader( "email;role\nanne.abel@paris.fr;\"admin;user\"\n" );
+
+        Assert.assertArrayEquals( new String[] { "email", "role" }, PARSER.readNext( reader ) );
+        Assert.assertArrayEquals( new String[] { "anne.abel@paris.fr", "admin;user" }, PARSER.readNext( reader ) );
+        Assert.assertNull( PARSER.readNext( reader ) );
+    }
+
+    /**
+     * A quoted value spanning several lines makes a single record
+     * @throws IOException never
+     */
+    @Test
+    public void testMultiLineQuotedRecord(  ) throws IOException
+    {
+        BufferedReader reader = getReader( "anne.abel@paris.fr;\"first line\nsecond; line\n\nlast line\";end\nzola@paris.fr;x\n" );
+
+        Assert.assertArrayEquals( new String[] { "anne.abel@paris.fr", "first line\nsecond; line\n\nlast line", "end" },
+            PARSER.readNext( reader ) );
+        Assert.assertArrayEquals( new String[] { "zola@paris.fr", "x" }, PARSER.readNext( reader ) );
+        Assert.assertNull( PARSER.readNext( reader ) );
+    }
+
+    /**
+     * Doubled and escaped quotes do not close the quoted value
+     * @throws IOException never
+     */
+    @Test
+    public void testQuotesInMultiLineRecord(  ) throws IOException
+    {
+        BufferedReader reader = getReader( "\"say \"\"hello\nworld\"\" \\\" again\";b\n" );
+
+        Assert.assertArrayEquals( new String[] { "say \"hello\nworld\" \" again", "b" }, PARSER.readNext( reader ) );
+        Assert.assertNull( PARSER.readNext( reader ) );
+    }
+
+    /**
+     * A quoted value left open at the end of the file ends the last record
+     * @throws IOException never
+     */
+    @Test
+    public void testUnterminatedQuotedRecord(  ) throws IOException
+    {
+        BufferedReader reader = getReader( "a;\"open\nvalue" );
+
+        Assert.assertArrayEquals( new String[] { "a", "open\nvalue" }, PARSER.readNext( reader ) );
+        Assert.assertNull( PARSER.readNext( reader ) );
+    }
+
+    /**
+     * A single line is split with the same rules
+     */
+    @Test
+    public void testParseLine(  )
+    {
+        Assert.assertArrayEquals( new String[] { "a", "b;c", "" }, PARSER.parseLine( "a;\"b;c\";" ) );
+    }
+}
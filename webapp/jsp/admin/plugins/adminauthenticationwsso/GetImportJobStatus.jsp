@@ -0,0 +1,6 @@
+<%@ page errorPage="../../ErrorPage.jsp" contentType="application/json; charset=UTF-8" trimDirectiveWhitespaces="true" %>
+
+<jsp:useBean id="wssoImportJob" scope="session" class="fr.paris.lutece.plugins.adminauthenticationwsso.web.WssoImportJobJspBean" />
+
+<% wssoImportJob.init( request, fr.paris.lutece.plugins.adminauthenticationwsso.web.WssoImportJobJspBean.RIGHT_USERS_MANAGEMENT ); %>
+<%= wssoImportJob.getImportJobStatus( request ) %>
@@ -0,0 +1,10 @@
+<%@ page errorPage="../../ErrorPage.jsp" %>
+
+<jsp:include page="../../AdminHeader.jsp" />
+
+<jsp:useBean id="wssoImportJob" scope="session" class="fr.paris.lutece.plugins.adminauthenticationwsso.web.WssoImportJobJspBean" />
+
+<% wssoImportJob.init( request, fr.paris.lutece.plugins.adminauthenticationwsso.web.WssoImportJobJspBean.RIGHT_USERS_MANAGEMENT ); %>
+<%= wssoImportJob.getValidateUsersFile( request ) %>
+
+<%@ include file="../../AdminFooter.jsp" %>